@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * A bulk delete executed in bounded chunks, to limit the number of rows locked by each statement and the size of each
+ * transaction.
+ * <p>
+ * The identifiers of the entities which match the delete clause predicate are selected in identifier order, a chunk at
+ * a time, using keyset pagination. Each chunk of entities is then deleted by identifier.
+ * </p>
+ * <p>
+ * When the current {@link javax.persistence.EntityManager} is joined to a transaction, all the chunks are deleted
+ * sequentially within that transaction. Otherwise, each chunk is deleted in its own short resource-local transaction,
+ * which is committed before the next chunk is deleted, using the {@link javax.persistence.EntityManager} the
+ * datastore provides outside of a transaction. In this case, a failure leaves the chunks deleted before the failure
+ * committed. Resource-local transactions are not available for JTA and container managed shared EntityManagers: in
+ * that case the chunked delete must be executed within a transaction.
+ * </p>
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * long deleted = queryDsl.delete(ENTITY).where(ENTITY.expired.isTrue()).deleteInChunks(1000)
+ * 		.progress(count -&gt; LOGGER.info("Deleted " + count)).execute();
+ * </pre>
+ *
+ * @since 5.7.1
+ *
+ * @see JpaDeleteClause#deleteInChunks(int)
+ */
+public interface ChunkedDelete {
+
+	/**
+	 * Set the maximum number of chunks to delete concurrently, each one in its own transaction. Default is
+	 * <code>1</code>, which means that the chunks are deleted sequentially.
+	 * <p>
+	 * The chunks are always deleted sequentially when the current {@link javax.persistence.EntityManager} is joined to
+	 * a transaction.
+	 * </p>
+	 * @param parallelism The parallelism, must be greater than 0
+	 * @return this
+	 */
+	ChunkedDelete parallelism(int parallelism);
+
+	/**
+	 * Set the {@link Executor} to use to delete the chunks when the parallelism is greater than <code>1</code>. If not
+	 * setted, virtual threads are used when supported by the JVM, or a default thread pool otherwise.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 */
+	ChunkedDelete executor(Executor executor);
+
+	/**
+	 * Set the listener to notify with the total number of deleted entities each time a chunk is deleted.
+	 * @param progressListener The progress listener, <code>null</code> for none
+	 * @return this
+	 */
+	ChunkedDelete progress(LongConsumer progressListener);
+
+	/**
+	 * Execute the chunked delete.
+	 * @return The total number of deleted entities
+	 * @throws IllegalStateException If the entity to delete has not a single, basic and comparable identifier
+	 *         attribute, or if no transaction is active and the EntityManager does not support resource-local
+	 *         transactions
+	 */
+	long execute();
+
+}
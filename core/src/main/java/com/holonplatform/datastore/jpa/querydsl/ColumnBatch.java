@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.List;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.querydsl.core.types.Expression;
+
+/**
+ * A batch of query results in columnar form: the values of each projected {@link Expression} are collected in a typed
+ * column buffer, instead of creating an object for each row.
+ * <p>
+ * The column buffer type depends on the expression type: primitive arrays are used for {@link Long},
+ * {@link Integer} and {@link Double} expressions, dictionary encoded arrays for {@link String} and {@link Enum}
+ * expressions and object arrays for any other type.
+ * </p>
+ * <p>
+ * The column buffers may be larger than the batch rows count: only the first {@link #getRowCount()} elements of each
+ * buffer are meaningful.
+ * </p>
+ *
+ * @since 5.7.1
+ *
+ * @see JpaQuery#fetchColumnar(int, java.util.function.Consumer)
+ */
+public interface ColumnBatch {
+
+	/**
+	 * Get the number of rows of this batch.
+	 * @return the batch rows count
+	 */
+	int getRowCount();
+
+	/**
+	 * Get the column expressions, in projection order.
+	 * @return the column expressions
+	 */
+	List<Expression<?>> getExpressions();
+
+	/**
+	 * Get the column at given index.
+	 * @param index The column index, in projection order
+	 * @return The column
+	 * @throws IndexOutOfBoundsException If the index is not valid
+	 */
+	Column getColumn(int index);
+
+	/**
+	 * Get the column which corresponds to given expression.
+	 * @param expression The column expression (not null)
+	 * @return The column
+	 * @throws IllegalArgumentException If given expression is not a column expression
+	 */
+	default Column getColumn(Expression<?> expression) {
+		ObjectUtils.argumentNotNull(expression, "Expression must be not null");
+		final int index = getExpressions().indexOf(expression);
+		if (index < 0) {
+			throw new IllegalArgumentException("Expression [" + expression + "] is not a column of the batch");
+		}
+		return getColumn(index);
+	}
+
+	/**
+	 * Column buffer types.
+	 */
+	public enum ColumnType {
+
+		/**
+		 * <code>long</code> values, see {@link Column#getLongs()}
+		 */
+		LONG,
+
+		/**
+		 * <code>int</code> values, see {@link Column#getInts()}
+		 */
+		INT,
+
+		/**
+		 * <code>double</code> values, see {@link Column#getDoubles()}
+		 */
+		DOUBLE,
+
+		/**
+		 * Dictionary encoded values, see {@link Column#getCodes()} and {@link Column#getDictionary()}
+		 */
+		DICTIONARY,
+
+		/**
+		 * Object values, see {@link Column#getValues()}
+		 */
+		OBJECT;
+
+	}
+
+	/**
+	 * A column buffer.
+	 */
+	public interface Column {
+
+		/**
+		 * Get the column expression.
+		 * @return the column expression
+		 */
+		Expression<?> getExpression();
+
+		/**
+		 * Get the column buffer type.
+		 * @return the column type
+		 */
+		ColumnType getType();
+
+		/**
+		 * Get whether the value at given row is <code>null</code>.
+		 * @param row The row index
+		 * @return <code>true</code> if the value is <code>null</code>
+		 */
+		boolean isNull(int row);
+
+		/**
+		 * Get the value at given row, boxing or decoding it if required.
+		 * @param row The row index
+		 * @return The value, <code>null</code> if the value is <code>null</code>
+		 */
+		Object getValue(int row);
+
+		/**
+		 * Get the <code>long</code> values of a {@link ColumnType#LONG} column. <code>null</code> values are
+		 * represented by <code>0</code>, see {@link #isNull(int)}.
+		 * @return the column values
+		 * @throws IllegalStateException If the column is not a {@link ColumnType#LONG} column
+		 */
+		default long[] getLongs() {
+			throw new IllegalStateException("Column [" + getExpression() + "] is not a LONG column: " + getType());
+		}
+
+		/**
+		 * Get the <code>int</code> values of a {@link ColumnType#INT} column. <code>null</code> values are represented
+		 * by <code>0</code>, see {@link #isNull(int)}.
+		 * @return the column values
+		 * @throws IllegalStateException If the column is not a {@link ColumnType#INT} column
+		 */
+		default int[] getInts() {
+			throw new IllegalStateException("Column [" + getExpression() + "] is not an INT column: " + getType());
+		}
+
+		/**
+		 * Get the <code>double</code> values of a {@link ColumnType#DOUBLE} column. <code>null</code> values are
+		 * represented by <code>0</code>, see {@link #isNull(int)}.
+		 * @return the column values
+		 * @throws IllegalStateException If the column is not a {@link ColumnType#DOUBLE} column
+		 */
+		default double[] getDoubles() {
+			throw new IllegalStateException("Column [" + getExpression() + "] is not a DOUBLE column: " + getType());
+		}
+
+		/**
+		 * Get the dictionary codes of a {@link ColumnType#DICTIONARY} column, i.e. the index of each row value in
+		 * the {@link #getDictionary()} list. <code>null</code> values are represented by <code>-1</code>.
+		 * @return the column dictionary codes
+		 * @throws IllegalStateException If the column is not a {@link ColumnType#DICTIONARY} column
+		 */
+		default int[] getCodes() {
+			throw new IllegalStateException(
+					"Column [" + getExpression() + "] is not a DICTIONARY column: " + getType());
+		}
+
+		/**
+		 * Get the distinct values of a {@link ColumnType#DICTIONARY} column. The dictionary is shared by all the
+		 * batches of the same query execution, so the dictionary codes are consistent among batches.
+		 * @return the column dictionary
+		 * @throws IllegalStateException If the column is not a {@link ColumnType#DICTIONARY} column
+		 */
+		default List<Object> getDictionary() {
+			throw new IllegalStateException(
+					"Column [" + getExpression() + "] is not a DICTIONARY column: " + getType());
+		}
+
+		/**
+		 * Get the values of an {@link ColumnType#OBJECT} column.
+		 * @return the column values
+		 * @throws IllegalStateException If the column is not an {@link ColumnType#OBJECT} column
+		 */
+		default Object[] getValues() {
+			throw new IllegalStateException("Column [" + getExpression() + "] is not an OBJECT column: " + getType());
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.List;
+
+import com.querydsl.core.types.EntityPath;
+
+/**
+ * Result of the {@link EntityPath} resolution warm-up, which resolves and caches the QueryDSL query class
+ * {@link EntityPath} of each entity of a JPA persistence unit.
+ * <p>
+ * The warm-up can be performed using {@link QueryDsl#warmUpEntityPaths()} or automatically at first {@link QueryDsl}
+ * commodity creation, setting the {@link #WARM_UP_PROPERTY} system property to <code>true</code>.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public interface EntityPathWarmUp {
+
+	/**
+	 * System property name which can be used to enable the automatic entity paths warm-up.
+	 */
+	static final String WARM_UP_PROPERTY = "holon.datastore.jpa.querydsl.entity-paths.warm-up";
+
+	/**
+	 * Get the number of entities for which the {@link EntityPath} was successfully resolved.
+	 * @return The resolved entity paths count
+	 */
+	int getResolvedCount();
+
+	/**
+	 * Get the entity classes for which the {@link EntityPath} could not be resolved, for example because the QueryDSL
+	 * query class is not available.
+	 * @return The entity classes which could not be resolved, an empty list if none
+	 */
+	List<Class<?>> getFailedEntityClasses();
+
+	/**
+	 * Get the warm-up elapsed time in milliseconds.
+	 * @return The elapsed time in milliseconds
+	 */
+	long getElapsedMillis();
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+/**
+ * Statistics about the {@link JpaQuery#fetchResults()} executions and the {@link FetchResultsStrategy} used.
+ *
+ * @since 5.7.1
+ */
+public interface FetchResultsStatistics {
+
+	/**
+	 * Get the number of executions which used given strategy.
+	 * @param strategy The strategy (not null)
+	 * @return The executions count
+	 */
+	long getExecutionCount(FetchResultsStrategy strategy);
+
+	/**
+	 * Get the number of count queries which were not executed, since the total was inferred from the results page or
+	 * obtained from the cache.
+	 * @return The skipped count queries
+	 */
+	long getSkippedCountQueries();
+
+	/**
+	 * Get the number of executions which actually run the count query and the results page query concurrently.
+	 * @return The concurrent executions count
+	 */
+	long getConcurrentExecutions();
+
+	/**
+	 * Get the estimated total time saved by the strategies, compared to the sequential execution of the count query
+	 * and the results page query.
+	 * @return The estimated time saved, in milliseconds
+	 */
+	long getEstimatedTimeSavedMillis();
+
+}
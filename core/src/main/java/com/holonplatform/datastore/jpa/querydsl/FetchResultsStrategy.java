@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.concurrent.Executor;
+
+import com.querydsl.core.QueryResults;
+
+/**
+ * Strategies which can be used by {@link JpaQuery#fetchResults()} to obtain the results page and the total results
+ * count.
+ *
+ * @since 5.7.1
+ *
+ * @see JpaQuery#setFetchResultsStrategy(FetchResultsStrategy)
+ * @see FetchResultsStatistics
+ */
+public enum FetchResultsStrategy {
+
+	/**
+	 * The count query is executed first, then the results page query, if the count is greater than <code>0</code>.
+	 * This is the default strategy.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * The results page query is executed first. The count query is skipped when the total can be inferred from the
+	 * results page, i.e. when the page is shorter than the query limit and it is either the first page or a not empty
+	 * page.
+	 */
+	PAGE_FIRST,
+
+	/**
+	 * The count query and the results page query are executed concurrently. The count query is executed using the
+	 * {@link Executor} configured with {@link JpaQuery#setFetchResultsExecutor(Executor)}, if available, or using a
+	 * default one, and it uses the <code>EntityManager</code> which the datastore provides to the executor thread.
+	 * <p>
+	 * When a transaction is active, the queries are executed sequentially, since the count query
+	 * <code>EntityManager</code> would not take part in the transaction.
+	 * </p>
+	 */
+	CONCURRENT,
+
+	/**
+	 * The total results count is cached for a limited amount of time, and reused by any subsequent
+	 * {@link QueryResults} request with the same query filters and parameters, for example to obtain the next pages.
+	 * <p>
+	 * The cache entries expiration time, in milliseconds, can be configured using the
+	 * {@link #CACHED_TOTAL_TTL_PROPERTY} system property. The totals are stored in the query results cache (see
+	 * {@link ResultCacheStatistics}), so they are invalidated when an update or delete clause is executed on any
+	 * entity type referenced by the query, like the results of a cacheable query.
+	 * </p>
+	 */
+	CACHED_TOTAL;
+
+	/**
+	 * System property name which can be used to configure the {@link #CACHED_TOTAL} strategy cache entries expiration
+	 * time, in milliseconds.
+	 */
+	public static final String CACHED_TOTAL_TTL_PROPERTY = "holon.datastore.jpa.querydsl.fetch-results.total-cache-ttl";
+
+	/**
+	 * Default {@link #CACHED_TOTAL} strategy cache entries expiration time, in milliseconds.
+	 */
+	public static final long DEFAULT_CACHED_TOTAL_TTL = 30000L;
+
+}
@@ -24,4 +24,51 @@ import com.querydsl.core.dml.DeleteClause;
  */
 public interface JpaDeleteClause extends DeleteClause<JpaDeleteClause> {
 
+	/**
+	 * Add the current delete statement to the batch of this clause and reset the clause state, so that a new
+	 * statement can be configured.
+	 * <p>
+	 * When the batch is executed, the batch statements with the same structure, which only differ by the scalar
+	 * constant values of the <em>where</em> clause comparisons, share the same serialized and prepared JPQL
+	 * statement.
+	 * </p>
+	 * @return this
+	 * @since 5.7.1
+	 * @see #executeBatch()
+	 */
+	JpaDeleteClause addBatch();
+
+	/**
+	 * Get the number of statements added to the batch of this clause and not yet executed.
+	 * @return The batch statements count
+	 * @since 5.7.1
+	 */
+	int getBatchCount();
+
+	/**
+	 * Execute the statements added to the batch of this clause, in the order they were added, and clear the batch.
+	 * @return The number of deleted entities for each batch statement, in the order the statements were added
+	 * @since 5.7.1
+	 */
+	long[] executeBatch();
+
+	/**
+	 * Get a {@link ChunkedDelete} to delete the entities which match the current predicate of this clause in chunks of
+	 * given size, in order to bound the rows locked by each delete statement and the transactions size.
+	 * @param chunkSize The maximum number of entities to delete in each chunk, must be greater than 0
+	 * @return The chunked delete
+	 * @since 5.7.1
+	 */
+	ChunkedDelete deleteInChunks(int chunkSize);
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If one or more statements were added to the batch of this clause using {@link #addBatch()}, the batch is
+	 * executed and the total number of deleted entities is returned.
+	 * </p>
+	 */
+	@Override
+	long execute();
+
 }
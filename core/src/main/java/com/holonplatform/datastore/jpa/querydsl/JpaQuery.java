@@ -15,18 +15,27 @@
  */
 package com.holonplatform.datastore.jpa.querydsl;
 
+import java.time.Duration;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
 
+import com.holonplatform.core.config.ConfigProperty;
 import com.holonplatform.core.datastore.DataTarget;
+import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.holonplatform.core.query.QueryAggregation;
 import com.holonplatform.core.query.QueryBuilder;
 import com.holonplatform.core.query.QueryFilter;
 import com.holonplatform.core.query.QuerySort;
 import com.querydsl.core.NonUniqueResultException;
 import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.QueryResults;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.CollectionExpression;
 import com.querydsl.core.types.EntityPath;
@@ -36,6 +45,7 @@ import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.ParamExpression;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.core.types.dsl.Wildcard;
 import com.querydsl.jpa.JPQLQuery;
 
@@ -64,6 +74,59 @@ import com.querydsl.jpa.JPQLQuery;
  */
 public interface JpaQuery<T> extends QueryBuilder<JpaQuery<T>>, JPQLQuery<T> {
 
+	/**
+	 * Query configuration parameter which can be used to set the JDBC fetch size of the query results.
+	 * @since 5.7.1
+	 */
+	static final ConfigProperty<Integer> QUERY_PARAMETER_FETCH_SIZE = ConfigProperty.create("jpa-query-fetch-size",
+			Integer.class);
+
+	/**
+	 * Maximum number of key values checked using a single query by {@link #fetchExists(Expression, List)}.
+	 * @since 5.7.1
+	 */
+	static final int EXISTS_BATCH_SIZE = 1000;
+
+	/**
+	 * Query configuration parameter which can be used to enable or disable the read-only mode.
+	 * @see #setReadOnly(boolean)
+	 * @since 5.7.1
+	 */
+	static final ConfigProperty<Boolean> QUERY_PARAMETER_READ_ONLY = ConfigProperty.create("jpa-query-read-only",
+			Boolean.class);
+
+	/**
+	 * System property name which can be used to enable the read-only mode by default for all the queries.
+	 * @see #setReadOnly(boolean)
+	 * @since 5.7.1
+	 */
+	static final String READ_ONLY_PROPERTY = "holon.datastore.jpa.querydsl.read-only";
+
+	/**
+	 * Query configuration parameter which can be used to set the query results cache time to live.
+	 * @see #cacheable(Duration)
+	 * @since 5.7.1
+	 */
+	static final ConfigProperty<Duration> QUERY_PARAMETER_RESULT_CACHE_TTL = ConfigProperty
+			.create("jpa-query-result-cache-ttl", Duration.class);
+
+	/**
+	 * Query configuration parameter which can be used to set the {@link FetchResultsStrategy} to use with
+	 * {@link #fetchResults()}.
+	 * @since 5.7.1
+	 */
+	static final ConfigProperty<FetchResultsStrategy> QUERY_PARAMETER_FETCH_RESULTS_STRATEGY = ConfigProperty
+			.create("jpa-query-fetch-results-strategy", FetchResultsStrategy.class);
+
+	/**
+	 * Query configuration parameter which can be used to iterate the query results using a dedicated
+	 * <code>EntityManager</code>.
+	 * @see #setDedicatedEntityManager(boolean)
+	 * @since 5.7.1
+	 */
+	static final ConfigProperty<Boolean> QUERY_PARAMETER_DEDICATED_ENTITY_MANAGER = ConfigProperty
+			.create("jpa-query-dedicated-entity-manager", Boolean.class);
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -326,6 +389,365 @@ public interface JpaQuery<T> extends QueryBuilder<JpaQuery<T>>, JPQLQuery<T> {
 	 */
 	JpaQuery<T> setHint(String name, Object value);
 
+	/**
+	 * Restrict the query results to the rows which follow the row with given sort key values, according to the query
+	 * sort specifiers (keyset pagination).
+	 * <p>
+	 * Unlike <code>offset</code> based pagination, the skipped rows do not need to be scanned by the database, so any
+	 * results page is retrieved with the same cost of the first one.
+	 * </p>
+	 * <p>
+	 * The sort specifiers are the ones declared using {@link #orderBy(OrderSpecifier...)}, followed by the ones of any
+	 * {@link QuerySort} declared using {@link #sort(QuerySort)}. Both ascending and descending directions are
+	 * supported. The sort specifiers should include a unique tiebreaker (for example the entity id) as last sort
+	 * expression, and the sort key values cannot be <code>null</code>.
+	 * </p>
+	 * @param lastSortKeyValues The sort key values of the last row of the previous results page, one for each query
+	 *        sort specifier and in the same order (not null)
+	 * @return this
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> seekAfter(Object... lastSortKeyValues);
+
+	/**
+	 * Restrict the query results to the rows which follow the row identified by given token (keyset pagination).
+	 * @param token The keyset pagination token (not null)
+	 * @return this
+	 * @see #seekAfter(Object...)
+	 * @since 5.7.1
+	 */
+	default JpaQuery<T> seekAfter(KeysetPageToken token) {
+		ObjectUtils.argumentNotNull(token, "KeysetPageToken must be not null");
+		return seekAfter(token.getValues().toArray());
+	}
+
+	/**
+	 * Set the JDBC fetch size to use when the query results are retrieved, if supported by the ORM platform.
+	 * <p>
+	 * A suitable fetch size is recommended when using {@link #stream()} or {@link #iterate()} to process large result
+	 * sets.
+	 * </p>
+	 * @param fetchSize The JDBC fetch size
+	 * @return this
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setFetchSize(int fetchSize);
+
+	/**
+	 * Set whether to use a dedicated <code>EntityManager</code> when the query results are iterated using
+	 * {@link #iterate()} or {@link #stream()}. Default is <code>false</code>.
+	 * <p>
+	 * A dedicated <code>EntityManager</code> is obtained directly from the <code>EntityManagerFactory</code>, so the
+	 * datastore <code>EntityManager</code> initializer and finalizer are not used, it does not take part in any current
+	 * transaction and it uses its own connection. It is closed when the iterator or the stream is closed. This mode
+	 * allows to iterate large result sets through a provider cursor also when no transaction is active.
+	 * </p>
+	 * @param dedicatedEntityManager Whether to use a dedicated <code>EntityManager</code> to iterate the results
+	 * @return this
+	 * @see #QUERY_PARAMETER_DEDICATED_ENTITY_MANAGER
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setDedicatedEntityManager(boolean dedicatedEntityManager);
+
+	/**
+	 * Declare this query as cacheable, caching its results for the given time to live.
+	 * <p>
+	 * The results of the {@link #fetch()}, {@link #fetchOne()}, {@link #fetchFirst()} and {@link #fetchCount()}
+	 * executions are cached, keyed by the JPQL statement, the bound values, the projection and the query limit and
+	 * offset. The cache is bounded by number of entries and number of cached rows, see {@link ResultCacheStatistics}.
+	 * </p>
+	 * <p>
+	 * The cached results are invalidated when an update or delete clause created through {@link QueryDsl} is executed
+	 * on any entity type referenced by the query. Any other change, for example through the
+	 * <code>EntityManager</code> or a different datastore, is only reflected when the results expire.
+	 * </p>
+	 * <p>
+	 * Only results made of immutable or copyable values are cached, i.e. strings, numbers, booleans, enumerations,
+	 * <code>java.time</code> and <code>java.util.Date</code> values and arrays of them, and tuples of immutable values.
+	 * Each execution which obtains the results from the cache gets its own copy of them, so the cost of a cache hit is
+	 * linear in the number of results rows. The results of a query which selects entities or beans are never cached,
+	 * since entities are bound to the persistence context which loaded them: such a query is always executed.
+	 * </p>
+	 * <p>
+	 * Queries with a lock mode are never cached.
+	 * </p>
+	 * @param ttl The results time to live (not null, must be positive)
+	 * @return this
+	 * @see QueryDsl#getResultCacheStatistics()
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> cacheable(Duration ttl);
+
+	/**
+	 * Enable or disable the read-only mode for this query.
+	 * <p>
+	 * In read-only mode, the entities loaded by the query are not meant to be modified: the ORM platform read-only
+	 * query hint is used (<code>org.hibernate.readOnly</code> for Hibernate, <code>eclipselink.read-only</code> for
+	 * EclipseLink), so that no state snapshot is kept for dirty checking, and the {@link FlushModeType#COMMIT} flush
+	 * mode is used, unless a flush mode was explicitly set, to avoid the persistence context auto-flush before the
+	 * query execution.
+	 * </p>
+	 * <p>
+	 * The read-only mode is disabled by default, and it is ignored when the query is executed within a transaction,
+	 * so that the query results always reflect the pending changes of the current transaction.
+	 * </p>
+	 * <p>
+	 * The read-only mode can be enabled by default using the {@link #READ_ONLY_PROPERTY} system property or
+	 * {@link QueryDsl#setDefaultReadOnly(boolean)}.
+	 * </p>
+	 * @param readOnly Whether to enable the read-only mode
+	 * @return this
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setReadOnly(boolean readOnly);
+
+	/**
+	 * Enable the read-only mode for this query.
+	 * @return this
+	 * @see #setReadOnly(boolean)
+	 * @since 5.7.1
+	 */
+	default JpaQuery<T> readOnly() {
+		return setReadOnly(true);
+	}
+
+	/**
+	 * Set the strategy to use to obtain the results page and the total results count when {@link #fetchResults()} is
+	 * invoked. Default is {@link FetchResultsStrategy#SEQUENTIAL}.
+	 * @param strategy The strategy to use (not null)
+	 * @return this
+	 * @see QueryDsl#getFetchResultsStatistics()
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setFetchResultsStrategy(FetchResultsStrategy strategy);
+
+	/**
+	 * Set the {@link Executor} to use to execute the count query when the {@link FetchResultsStrategy#CONCURRENT}
+	 * strategy is used. If not setted, virtual threads are used when supported by the JVM, or a default thread pool
+	 * otherwise.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setFetchResultsExecutor(Executor executor);
+
+	/**
+	 * Split this query into the given number of partitions by value ranges of given numeric key, to be executed
+	 * concurrently, each one in an executor thread.
+	 * <p>
+	 * The query must not be grouped and must not declare a limit or an offset. The partitions are executed using the
+	 * executor configured through {@link #setAsyncExecutor(Executor)}, unless a specific one is provided.
+	 * </p>
+	 * @param key The partition key (not null)
+	 * @param partitions The partitions count, must be greater than 0
+	 * @return The partitioned query
+	 * @throws IllegalStateException If the query declares a limit or an offset
+	 * @see PartitionedJpaQuery
+	 * @since 5.7.1
+	 */
+	PartitionedJpaQuery<T> partitionBy(NumberPath<?> key, int partitions);
+
+	/**
+	 * Set the {@link Executor} to use to execute the query when one of the asynchronous fetch methods is invoked. If
+	 * not setted, virtual threads are used when supported by the JVM, or a default thread pool otherwise.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 * @see QueryDsl#setDefaultAsyncExecutor(Executor)
+	 * @since 5.7.1
+	 */
+	JpaQuery<T> setAsyncExecutor(Executor executor);
+
+	/**
+	 * Asynchronously execute the query and get the results list.
+	 * <p>
+	 * The query is compiled when this method is invoked, so any subsequent change to this query does not affect the
+	 * execution. The query is executed in the executor thread, using the {@link javax.persistence.EntityManager}
+	 * which the datastore provides to that thread, so it does not take part in any transaction of the calling thread.
+	 * </p>
+	 * @return The results list future
+	 * @see #setAsyncExecutor(Executor)
+	 * @since 5.7.1
+	 */
+	CompletableFuture<List<T>> fetchAsync();
+
+	/**
+	 * Asynchronously execute the query and get a unique result, completing with <code>null</code> if no result is
+	 * available or exceptionally with a {@link NonUniqueResultException} if more than one result is
+	 * available.
+	 * @return The unique result future
+	 * @see #fetchAsync()
+	 * @since 5.7.1
+	 */
+	CompletableFuture<T> fetchOneAsync();
+
+	/**
+	 * Asynchronously execute the query and get the results count.
+	 * @return The results count future
+	 * @see #fetchAsync()
+	 * @since 5.7.1
+	 */
+	CompletableFuture<Long> fetchCountAsync();
+
+	/**
+	 * Asynchronously execute the query and get the results page along with the total results count, using the
+	 * configured {@link FetchResultsStrategy}.
+	 * @return The query results future
+	 * @see #fetchAsync()
+	 * @since 5.7.1
+	 */
+	CompletableFuture<QueryResults<T>> fetchResultsAsync();
+
+	/**
+	 * Execute the query and get the results as a {@link Stream}.
+	 * <p>
+	 * Query results are not loaded in memory all at once: a provider cursor is used when supported by the ORM platform
+	 * (for example Hibernate forward-only <code>ScrollableResults</code> or EclipseLink cursors), and any projection
+	 * transformation is performed row by row.
+	 * </p>
+	 * <p>
+	 * The current <code>EntityManager</code> is used. Since a cursor is only valid until its
+	 * <code>EntityManager</code> is released, the results are streamed through a cursor when the
+	 * <code>EntityManager</code> is joined to a transaction, and the stream must be consumed before the transaction
+	 * completes. Otherwise, the results are loaded in memory before the stream is returned, unless a dedicated
+	 * <code>EntityManager</code> is used (see {@link #setDedicatedEntityManager(boolean)}).
+	 * </p>
+	 * <p>
+	 * The stream should be closed after use, for example using a <code>try-with-resources</code> block, to release
+	 * the cursor and, if used, the dedicated <code>EntityManager</code>.
+	 * </p>
+	 * @return The query results stream
+	 * @see #setFetchSize(int)
+	 * @see #setDedicatedEntityManager(boolean)
+	 * @since 5.7.1
+	 */
+	Stream<T> stream();
+
+	/**
+	 * Execute the query and get the results as an array of <code>long</code> values. The query must project a single
+	 * numeric expression, for example an entity identifier.
+	 * <p>
+	 * The query results are read using a provider cursor, when supported by the ORM platform, and collected directly
+	 * into the array, without creating an intermediate list of boxed values.
+	 * </p>
+	 * @return The query results array, an empty array if none
+	 * @throws IllegalStateException If a query result is <code>null</code> or it is not a number
+	 * @see #setFetchSize(int)
+	 * @since 5.7.1
+	 */
+	long[] fetchLongs();
+
+	/**
+	 * Execute the query and get the results as an array of <code>int</code> values. The query must project a single
+	 * numeric expression.
+	 * <p>
+	 * The query results are read using a provider cursor, when supported by the ORM platform, and collected directly
+	 * into the array, without creating an intermediate list of boxed values.
+	 * </p>
+	 * @return The query results array, an empty array if none
+	 * @throws IllegalStateException If a query result is <code>null</code> or it is not a number
+	 * @see #setFetchSize(int)
+	 * @since 5.7.1
+	 */
+	int[] fetchInts();
+
+	/**
+	 * Execute the query and get the results as an array of <code>double</code> values. The query must project a
+	 * single numeric expression.
+	 * <p>
+	 * The query results are read using a provider cursor, when supported by the ORM platform, and collected directly
+	 * into the array, without creating an intermediate list of boxed values.
+	 * </p>
+	 * @return The query results array, an empty array if none
+	 * @throws IllegalStateException If a query result is <code>null</code> or it is not a number
+	 * @see #setFetchSize(int)
+	 * @since 5.7.1
+	 */
+	double[] fetchDoubles();
+
+	/**
+	 * Execute the query in chunks of given size, providing each chunk of results to given consumer.
+	 * <p>
+	 * The chunks are fetched using the current <code>EntityManager</code>, and the persistence context is cleared
+	 * after each chunk is consumed, so the entities of a chunk are detached and they can be garbage collected. Any
+	 * pending change is flushed before clearing the persistence context when a transaction is active. Since the whole
+	 * persistence context is cleared, any other entity managed by the current <code>EntityManager</code>, including
+	 * the ones loaded before this method is invoked, is detached too.
+	 * </p>
+	 * <p>
+	 * Unless the query is grouped or distinct, the root entity identifier is appended to the query sort when the sort
+	 * does not already end with it, so that the chunks order is deterministic. When the sort key values can be
+	 * obtained from the query results (i.e. each sort expression is a projected expression, or an attribute of the
+	 * projected root entity) the chunks are fetched using keyset pagination. Otherwise, the chunks are fetched using
+	 * offset pagination.
+	 * </p>
+	 * @param chunkSize The maximum number of results of each chunk (greater than 0)
+	 * @param chunkConsumer The chunks consumer (not null)
+	 * @return The total number of processed results
+	 * @since 5.7.1
+	 */
+	long forEachChunk(int chunkSize, Consumer<? super List<T>> chunkConsumer);
+
+	/**
+	 * Execute the query and get the results in columnar form, using batches of given size: the values of each
+	 * projected expression are collected into a typed column buffer, without creating an object for each row.
+	 * <p>
+	 * The query results are read using a provider cursor, when supported by the ORM platform. Each batch is a new
+	 * instance, so the consumer can retain it.
+	 * </p>
+	 * @param batchSize The maximum number of rows of each batch (greater than 0)
+	 * @param consumer The batches consumer (not null)
+	 * @see ColumnBatch
+	 * @since 5.7.1
+	 */
+	void fetchColumnar(int batchSize, Consumer<ColumnBatch> consumer);
+
+	/**
+	 * Execute the query and get all the results in columnar form, as a single {@link ColumnBatch}.
+	 * @return The results batch, with no rows if none
+	 * @see #fetchColumnar(int, Consumer)
+	 * @since 5.7.1
+	 */
+	ColumnBatch fetchColumnar();
+
+	/**
+	 * Check whether at least one row matches this query.
+	 * <p>
+	 * The check is performed using a minimal query which projects a constant value and fetches at most one row,
+	 * without any <em>order by</em> clause and fetch join, so no entity is loaded.
+	 * </p>
+	 * @return <code>true</code> if at least one row matches this query, <code>false</code> otherwise
+	 * @since 5.7.1
+	 */
+	boolean fetchExists();
+
+	/**
+	 * Check, for each of given key values, whether at least one row matches this query with the <code>key</code>
+	 * expression equal to the value.
+	 * <p>
+	 * The check is performed using a single query which selects the distinct key values among the given ones (or a
+	 * query for each chunk of {@link #EXISTS_BATCH_SIZE} values, to comply with the database <code>IN</code> clause
+	 * limits).
+	 * </p>
+	 * @param <K> Key type
+	 * @param key The key expression (not null)
+	 * @param values The key values to check (not null)
+	 * @return A {@link BitSet} aligned with the <code>values</code> list: the bit at a given index is set if at least
+	 *         one row matches the value at the same index. <code>null</code> values never match
+	 * @since 5.7.1
+	 */
+	<K> BitSet fetchExists(Expression<K> key, List<? extends K> values);
+
+	/**
+	 * Compile this query into an immutable and thread-safe {@link PreparedJpaQuery}, which can be executed any number of
+	 * times providing only the query parameter bindings, limit and offset.
+	 * <p>
+	 * Any subsequent change to this query does not affect the returned {@link PreparedJpaQuery}.
+	 * </p>
+	 * @return A new {@link PreparedJpaQuery}
+	 * @since 5.7.1
+	 */
+	PreparedJpaQuery<T> prepare();
+
 	/**
 	 * Convenience method to execute the query and return results as {@link List}. An empty list is returned when no
 	 * result is found.
@@ -15,7 +15,10 @@
  */
 package com.holonplatform.datastore.jpa.querydsl;
 
+import java.util.Map;
+
 import com.querydsl.core.dml.UpdateClause;
+import com.querydsl.core.types.Path;
 
 /**
  * QueryDSL JPA {@link UpdateClause} extension to be used with the {@link QueryDsl} Datastore commodity.
@@ -24,4 +27,92 @@ import com.querydsl.core.dml.UpdateClause;
  */
 public interface JpaUpdateClause extends UpdateClause<JpaUpdateClause> {
 
+	/**
+	 * Default maximum number of map entries updated using a single statement by
+	 * {@link #setFromMap(Path, Path, Map)}.
+	 * @since 5.7.1
+	 */
+	static final int SET_FROM_MAP_CHUNK_SIZE = 500;
+
+	/**
+	 * Set the <code>target</code> path value of each entity to the value bound to the entity <code>key</code> path
+	 * value in given map, using the {@link #SET_FROM_MAP_CHUNK_SIZE} chunk size.
+	 * @param <K> Key type
+	 * @param <T> Target path type
+	 * @param target The path to update (not null)
+	 * @param key The key path which identifies the entities to update (not null)
+	 * @param values The target path values by key value (not null, not empty)
+	 * @return this
+	 * @since 5.7.1
+	 * @see #setFromMap(Path, Path, Map, int)
+	 */
+	default <K, T> JpaUpdateClause setFromMap(Path<T> target, Path<K> key, Map<K, T> values) {
+		return setFromMap(target, key, values, SET_FROM_MAP_CHUNK_SIZE);
+	}
+
+	/**
+	 * Set the <code>target</code> path value of each entity to the value bound to the entity <code>key</code> path
+	 * value in given map.
+	 * <p>
+	 * When the clause is executed, the map entries are split into chunks of given size and a single update statement
+	 * is executed for each chunk, in the form
+	 * <code>UPDATE ... SET target = CASE WHEN key = ? THEN ? ... ELSE target END WHERE key IN (...)</code>, along with
+	 * any other <em>set</em> expression and <em>where</em> predicate of this clause. Only the entities whose key value
+	 * is contained in the map are updated.
+	 * </p>
+	 * <p>
+	 * Only one map update can be configured for each clause statement.
+	 * </p>
+	 * @param <K> Key type
+	 * @param <T> Target path type
+	 * @param target The path to update (not null)
+	 * @param key The key path which identifies the entities to update (not null)
+	 * @param values The target path values by key value, <code>null</code> keys are not allowed (not null, not
+	 *        empty)
+	 * @param chunkSize The maximum number of map entries to update using a single statement, must be greater than 0
+	 * @return this
+	 * @throws IllegalArgumentException If the values map is empty or it contains a <code>null</code> key
+	 * @throws IllegalStateException If a map update is already configured for this clause statement
+	 * @since 5.7.1
+	 */
+	<K, T> JpaUpdateClause setFromMap(Path<T> target, Path<K> key, Map<K, T> values, int chunkSize);
+
+	/**
+	 * Add the current update statement to the batch of this clause and reset the clause state, so that a new
+	 * statement can be configured.
+	 * <p>
+	 * When the batch is executed, the batch statements with the same structure, which only differ by the scalar
+	 * constant values of the <em>set</em> clause and of the <em>where</em> clause comparisons, share the same
+	 * serialized and prepared JPQL statement.
+	 * </p>
+	 * @return this
+	 * @since 5.7.1
+	 * @see #executeBatch()
+	 */
+	JpaUpdateClause addBatch();
+
+	/**
+	 * Get the number of statements added to the batch of this clause and not yet executed.
+	 * @return The batch statements count
+	 * @since 5.7.1
+	 */
+	int getBatchCount();
+
+	/**
+	 * Execute the statements added to the batch of this clause, in the order they were added, and clear the batch.
+	 * @return The number of updated entities for each batch statement, in the order the statements were added
+	 * @since 5.7.1
+	 */
+	long[] executeBatch();
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If one or more statements were added to the batch of this clause using {@link #addBatch()}, the batch is
+	 * executed and the total number of updated entities is returned.
+	 * </p>
+	 */
+	@Override
+	long execute();
+
 }
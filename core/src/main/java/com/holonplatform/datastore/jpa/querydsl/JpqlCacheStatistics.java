@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+/**
+ * Statistics of the cache which holds the serialized JPQL statements of the {@link JpaQuery} executions, keyed by
+ * query structure.
+ * <p>
+ * The cache maximum size can be configured using the {@link #MAXIMUM_SIZE_PROPERTY} system property. A maximum size
+ * of <code>0</code> disables the cache.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public interface JpqlCacheStatistics {
+
+	/**
+	 * System property name which can be used to configure the JPQL cache maximum size.
+	 */
+	static final String MAXIMUM_SIZE_PROPERTY = "holon.datastore.jpa.querydsl.jpql-cache.maximum-size";
+
+	/**
+	 * Default JPQL cache maximum size.
+	 */
+	static final int DEFAULT_MAXIMUM_SIZE = 500;
+
+	/**
+	 * Get the number of query executions which obtained the JPQL statement from the cache.
+	 * @return The cache hits count
+	 */
+	long getHitCount();
+
+	/**
+	 * Get the number of query executions which required the JPQL statement serialization.
+	 * @return The cache misses count
+	 */
+	long getMissCount();
+
+	/**
+	 * Get the number of cached JPQL statements evicted to respect the cache maximum size.
+	 * @return The cache evictions count
+	 */
+	long getEvictionCount();
+
+	/**
+	 * Get the current number of cached JPQL statements.
+	 * @return The cache size
+	 */
+	int getSize();
+
+	/**
+	 * Get the cache maximum size.
+	 * @return The cache maximum size, <code>0</code> if the cache is disabled
+	 */
+	int getMaximumSize();
+
+	/**
+	 * Get the ratio of the cache hits over the total cache requests.
+	 * @return The cache hit rate, a value between <code>0</code> and <code>1</code>
+	 */
+	default double getHitRate() {
+		final long hits = getHitCount();
+		final long total = hits + getMissCount();
+		return (total == 0) ? 0d : ((double) hits) / total;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.querydsl.internal.DefaultKeysetPageToken;
+
+/**
+ * A keyset pagination token, which holds the sort key values of the last row of a results page.
+ * <p>
+ * The token can be used with {@link JpaQuery#seekAfter(KeysetPageToken)} to obtain the next results page. The values
+ * must be provided in the same order of the query sort specifiers. Example:
+ * 
+ * <pre>
+ * List&lt;MyEntity&gt; page = queryDsl.selectFrom(ENTITY).orderBy(ENTITY.name.asc(), ENTITY.id.asc()).limit(20).fetch();
+ * MyEntity last = page.get(page.size() - 1);
+ * KeysetPageToken token = KeysetPageToken.of(last.getName(), last.getId());
+ * 
+ * List&lt;MyEntity&gt; next = queryDsl.selectFrom(ENTITY).orderBy(ENTITY.name.asc(), ENTITY.id.asc()).seekAfter(token)
+ * 		.limit(20).fetch();
+ * </pre>
+ *
+ * @since 5.7.1
+ */
+public interface KeysetPageToken extends Serializable {
+
+	/**
+	 * Get the sort key values of the last row of the previous results page.
+	 * @return The sort key values, in the query sort specifiers order
+	 */
+	List<Object> getValues();
+
+	/**
+	 * Create a new {@link KeysetPageToken} using given sort key values.
+	 * @param values The sort key values, in the query sort specifiers order (not null)
+	 * @return A new {@link KeysetPageToken}
+	 */
+	static KeysetPageToken of(Object... values) {
+		ObjectUtils.argumentNotNull(values, "Sort key values must be not null");
+		return new DefaultKeysetPageToken(values);
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * A {@link JpaQuery} split into a number of partitions by value ranges of a numeric key, which are executed
+ * concurrently, each one in an executor thread using the {@link javax.persistence.EntityManager} which the datastore
+ * provides to that thread.
+ * <p>
+ * The key range is split into partitions of the same width, using the minimum and maximum key values, which are
+ * obtained from the query itself unless explicitly provided using {@link #bounds(Number, Number)}. The first and the
+ * last partitions are open, so the rows with a key value outside the bounds are never skipped. The rows with a
+ * <code>null</code> key value are returned by the first partition, or by the last one if the query is ordered by the
+ * partition key with the {@link com.querydsl.core.types.OrderSpecifier.NullHandling#NullsLast} null handling.
+ * </p>
+ * <p>
+ * When the query is ordered by the partition key, the partitions results are merged preserving the order. Otherwise,
+ * the partitions results are returned as soon as each partition completes, preserving only the order within each
+ * partition. Since the default placement of the <code>null</code> values depends on the database, a query ordered by a
+ * nullable partition key must declare an explicit null handling, for example using
+ * {@link com.querydsl.core.types.OrderSpecifier#nullsLast()}.
+ * </p>
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try (Stream&lt;MyEntity&gt; results = queryDsl.selectFrom(ENTITY).orderBy(ENTITY.id.asc()).partitionBy(ENTITY.id, 4)
+ * 		.stream()) {
+ * 	results.forEach(...);
+ * }
+ * </pre>
+ *
+ * @param <T> Query result type
+ *
+ * @since 5.7.1
+ *
+ * @see JpaQuery#partitionBy(com.querydsl.core.types.dsl.NumberPath, int)
+ */
+public interface PartitionedJpaQuery<T> {
+
+	/**
+	 * Set the key bounds to use to split the key range into partitions, instead of obtaining them from the query.
+	 * @param min The minimum key value (not null)
+	 * @param max The maximum key value (not null)
+	 * @return this
+	 */
+	PartitionedJpaQuery<T> bounds(Number min, Number max);
+
+	/**
+	 * Set the {@link Executor} to use to execute the partitions. If not setted, the query asynchronous executor is
+	 * used, if available, or the default one otherwise.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 * @see JpaQuery#setAsyncExecutor(Executor)
+	 */
+	PartitionedJpaQuery<T> executor(Executor executor);
+
+	/**
+	 * Execute the partitions and get the merged results as a {@link Stream}. The partitions are all started when this
+	 * method is invoked, and closing the stream cancels the partitions which are not started yet.
+	 * @return The merged results stream
+	 * @throws IllegalStateException If the query is grouped, or if it is ordered by a nullable partition key without
+	 *         an explicit null handling
+	 */
+	Stream<T> stream();
+
+	/**
+	 * Execute the partitions and get the merged results as a list.
+	 * @return The merged results list
+	 * @throws IllegalStateException If the query is grouped, or if it is ordered by a nullable partition key without
+	 *         an explicit null handling
+	 * @see #stream()
+	 */
+	List<T> fetch();
+
+}
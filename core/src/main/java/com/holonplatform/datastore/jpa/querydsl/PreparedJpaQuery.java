@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.stream.Stream;
+
+import com.querydsl.core.Fetchable;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.ParamExpression;
+
+/**
+ * An immutable and thread-safe prepared {@link JpaQuery}.
+ * <p>
+ * A prepared query is compiled only once: the query configuration expressions are resolved and the JPQL statement is
+ * serialized when the query is prepared. After that, the query can be executed any number of times, also concurrently
+ * from different threads, providing only the {@link ParamExpression} bindings and the query limit and offset.
+ * </p>
+ * <p>
+ * The binding and restriction methods never modify the prepared query: a new {@link PreparedJpaQuery} instance is
+ * returned instead. Example:
+ *
+ * <pre>
+ * Param&lt;String&gt; name = new Param&lt;&gt;(String.class, "name");
+ * PreparedJpaQuery&lt;MyEntity&gt; prepared = queryDsl.prepare(queryDsl.selectFrom(ENTITY).where(ENTITY.name.eq(name)));
+ *
+ * List&lt;MyEntity&gt; results = prepared.set(name, "test").limit(10).fetch();
+ * </pre>
+ *
+ * @param <T> Query result type
+ *
+ * @since 5.7.1
+ *
+ * @see QueryDsl#prepare(JpaQuery)
+ */
+public interface PreparedJpaQuery<T> extends Fetchable<T> {
+
+	/**
+	 * Get a new {@link PreparedJpaQuery} which binds given value to given parameter.
+	 * @param <P> Parameter type
+	 * @param param The parameter (not null)
+	 * @param value The parameter value
+	 * @return A new {@link PreparedJpaQuery} with given parameter binding
+	 */
+	<P> PreparedJpaQuery<T> set(ParamExpression<P> param, P value);
+
+	/**
+	 * Get a new {@link PreparedJpaQuery} with given results limit.
+	 * @param limit Results limit
+	 * @return A new {@link PreparedJpaQuery} with given limit
+	 */
+	PreparedJpaQuery<T> limit(long limit);
+
+	/**
+	 * Get a new {@link PreparedJpaQuery} with given results offset.
+	 * @param offset Results offset
+	 * @return A new {@link PreparedJpaQuery} with given offset
+	 */
+	PreparedJpaQuery<T> offset(long offset);
+
+	/**
+	 * Get a new {@link PreparedJpaQuery} with given query modifiers.
+	 * @param modifiers Query modifiers (not null)
+	 * @return A new {@link PreparedJpaQuery} with given modifiers
+	 */
+	PreparedJpaQuery<T> restrict(QueryModifiers modifiers);
+
+	/**
+	 * Execute the query and get the results as a {@link Stream}, using a provider cursor when supported by the ORM
+	 * platform.
+	 * <p>
+	 * The results are streamed through a cursor when the current <code>EntityManager</code> is joined to a transaction
+	 * or when the dedicated <code>EntityManager</code> mode was enabled for the query which was prepared, otherwise
+	 * they are loaded in memory. The stream should be closed after use.
+	 * </p>
+	 * @return The query results stream
+	 * @see JpaQuery#stream()
+	 */
+	Stream<T> stream();
+
+	/**
+	 * Get the JPQL statement of this query.
+	 * @return The JPQL statement
+	 */
+	String getQueryString();
+
+}
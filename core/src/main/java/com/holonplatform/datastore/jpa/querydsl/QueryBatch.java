@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.querydsl.core.QueryResults;
+
+/**
+ * A batch of independent {@link JpaQuery} executions, performed together using a single
+ * {@link javax.persistence.EntityManager} when the batch is executed.
+ * <p>
+ * Each query added to the batch provides a typed {@link Result}, which is available after the batch execution. The
+ * queries are compiled when the batch is executed, so any change to a query after it was added to the batch and before
+ * the batch execution is taken into account.
+ * </p>
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * QueryBatch batch = queryDsl.batch();
+ * Result&lt;Long&gt; count = batch.fetchCount(queryDsl.selectFrom(ENTITY));
+ * Result&lt;List&lt;String&gt;&gt; names = batch.fetch(queryDsl.select(ENTITY.name).from(ENTITY));
+ * batch.execute();
+ *
+ * long total = count.get();
+ * </pre>
+ *
+ * @since 5.7.1
+ *
+ * @see QueryDsl#batch()
+ */
+public interface QueryBatch {
+
+	/**
+	 * Add given query to the batch, to get the results list.
+	 * @param <T> Query result type
+	 * @param query The query (not null)
+	 * @return The query result, available after the batch execution
+	 */
+	<T> Result<List<T>> fetch(JpaQuery<T> query);
+
+	/**
+	 * Add given query to the batch, to get a unique result.
+	 * @param <T> Query result type
+	 * @param query The query (not null)
+	 * @return The query result, available after the batch execution. The result value is <code>null</code> if no
+	 *         result is available
+	 */
+	<T> Result<T> fetchOne(JpaQuery<T> query);
+
+	/**
+	 * Add given query to the batch, to get the results count.
+	 * @param query The query (not null)
+	 * @return The query result, available after the batch execution
+	 */
+	Result<Long> fetchCount(JpaQuery<?> query);
+
+	/**
+	 * Add given query to the batch, to get the results page along with the total results count.
+	 * @param <T> Query result type
+	 * @param query The query (not null)
+	 * @return The query result, available after the batch execution
+	 */
+	<T> Result<QueryResults<T>> fetchResults(JpaQuery<T> query);
+
+	/**
+	 * Set the maximum number of {@link javax.persistence.EntityManager}s to use to execute the batch queries in
+	 * parallel. Default is <code>1</code>, which means that all the queries are executed sequentially using the same
+	 * {@link javax.persistence.EntityManager}, joining the current transaction, if any.
+	 * <p>
+	 * When greater than <code>1</code>, the queries are distributed among the given number of groups, each one executed
+	 * in an executor thread using the {@link javax.persistence.EntityManager} which the datastore provides to that
+	 * thread, so the queries do not take part in any transaction of the calling thread.
+	 * </p>
+	 * @param parallelism The parallelism, must be greater than 0
+	 * @return this
+	 */
+	QueryBatch parallelism(int parallelism);
+
+	/**
+	 * Set the {@link Executor} to use to execute the queries when the parallelism is greater than <code>1</code>. If
+	 * not setted, virtual threads are used when supported by the JVM, or a default thread pool otherwise.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 */
+	QueryBatch executor(Executor executor);
+
+	/**
+	 * Get the number of queries in this batch.
+	 * @return The batch size
+	 */
+	int size();
+
+	/**
+	 * Execute all the queries of this batch. If any query fails, the batch execution fails with the query exception.
+	 */
+	void execute();
+
+	/**
+	 * The result of a query of a {@link QueryBatch}.
+	 * @param <R> Result type
+	 */
+	public interface Result<R> {
+
+		/**
+		 * Get whether the result is available, i.e. the query was executed.
+		 * @return <code>true</code> if the result is available
+		 */
+		boolean isAvailable();
+
+		/**
+		 * Get the result value.
+		 * @return The result value
+		 * @throws IllegalStateException If the batch was not executed yet
+		 */
+		R get();
+
+	}
+
+}
@@ -15,8 +15,11 @@
  */
 package com.holonplatform.datastore.jpa.querydsl;
 
+import java.util.concurrent.Executor;
+
 import com.holonplatform.core.datastore.Datastore;
 import com.holonplatform.core.datastore.DatastoreCommodity;
+import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.EntityPath;
 import com.querydsl.core.types.Expression;
@@ -117,6 +120,19 @@ public interface QueryDsl extends DatastoreCommodity {
 		return query().from(froms);
 	}
 
+	/**
+	 * Compile given query into an immutable and thread-safe {@link PreparedJpaQuery}.
+	 * @param <T> Query result type
+	 * @param query The query to prepare (not null)
+	 * @return A new {@link PreparedJpaQuery}
+	 * @see JpaQuery#prepare()
+	 * @since 5.7.1
+	 */
+	default <T> PreparedJpaQuery<T> prepare(JpaQuery<T> query) {
+		ObjectUtils.argumentNotNull(query, "Query to prepare must be not null");
+		return query.prepare();
+	}
+
 	/**
 	 * Create a new UPDATE clause.
 	 * @param entity Entity to update (not null)
@@ -131,4 +147,62 @@ public interface QueryDsl extends DatastoreCommodity {
 	 */
 	JpaDeleteClause delete(EntityPath<?> entity);
 
+	/**
+	 * Create a new {@link QueryBatch}, which can be used to execute a set of independent queries using a single
+	 * {@link javax.persistence.EntityManager}.
+	 * @return A new query batch
+	 * @since 5.7.1
+	 */
+	QueryBatch batch();
+
+	/**
+	 * Set whether the read-only mode is enabled by default for the queries created using this commodity.
+	 * @param readOnly Whether to enable the read-only mode by default
+	 * @return this
+	 * @see JpaQuery#setReadOnly(boolean)
+	 * @since 5.7.1
+	 */
+	QueryDsl setDefaultReadOnly(boolean readOnly);
+
+	/**
+	 * Set the default {@link Executor} to use to execute the queries created using this commodity asynchronously.
+	 * @param executor The executor to use, <code>null</code> to use the default one
+	 * @return this
+	 * @see JpaQuery#setAsyncExecutor(Executor)
+	 * @since 5.7.1
+	 */
+	QueryDsl setDefaultAsyncExecutor(Executor executor);
+
+	/**
+	 * Get the statistics of the cache which holds the results of the cacheable queries.
+	 * @return The result cache statistics
+	 * @see JpaQuery#cacheable(java.time.Duration)
+	 * @since 5.7.1
+	 */
+	ResultCacheStatistics getResultCacheStatistics();
+
+	/**
+	 * Get the statistics of the cache which holds the serialized JPQL statements of the queries executed using this
+	 * commodity.
+	 * @return The JPQL cache statistics
+	 * @since 5.7.1
+	 */
+	JpqlCacheStatistics getJpqlCacheStatistics();
+
+	/**
+	 * Get the statistics about the {@link JpaQuery#fetchResults()} executions of the queries created using this
+	 * commodity, including the estimated time saved by the configured {@link FetchResultsStrategy}.
+	 * @return The fetch results statistics
+	 * @since 5.7.1
+	 */
+	FetchResultsStatistics getFetchResultsStatistics();
+
+	/**
+	 * Resolve and cache the QueryDSL query class {@link EntityPath} of each entity of the JPA persistence unit, so that
+	 * the first queries which use them do not pay the query class lookup cost.
+	 * @return The warm-up result, which provides the resolved entities count and the elapsed time
+	 * @since 5.7.1
+	 */
+	EntityPathWarmUp warmUpEntityPaths();
+
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl;
+
+/**
+ * Statistics of the cache which holds the results of the {@link JpaQuery} executions declared as cacheable.
+ * <p>
+ * The cache is bounded both by number of entries and by total weight, where the weight of an entry is the number of
+ * cached rows. The bounds can be configured using the {@link #MAXIMUM_SIZE_PROPERTY} and
+ * {@link #MAXIMUM_WEIGHT_PROPERTY} system properties.
+ * </p>
+ *
+ * @since 5.7.1
+ *
+ * @see JpaQuery#cacheable(java.time.Duration)
+ */
+public interface ResultCacheStatistics {
+
+	/**
+	 * System property name which can be used to configure the result cache maximum number of entries.
+	 */
+	static final String MAXIMUM_SIZE_PROPERTY = "holon.datastore.jpa.querydsl.result-cache.maximum-size";
+
+	/**
+	 * System property name which can be used to configure the result cache maximum total weight, i.e. the maximum
+	 * number of cached rows.
+	 */
+	static final String MAXIMUM_WEIGHT_PROPERTY = "holon.datastore.jpa.querydsl.result-cache.maximum-weight";
+
+	/**
+	 * Default result cache maximum number of entries.
+	 */
+	static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+	/**
+	 * Default result cache maximum total weight.
+	 */
+	static final long DEFAULT_MAXIMUM_WEIGHT = 100000L;
+
+	/**
+	 * Get the number of cacheable query executions which obtained the results from the cache.
+	 * @return The cache hits count
+	 */
+	long getHitCount();
+
+	/**
+	 * Get the number of cacheable query executions which required the query execution.
+	 * @return The cache misses count
+	 */
+	long getMissCount();
+
+	/**
+	 * Get the number of cached results evicted to respect the cache bounds.
+	 * @return The cache evictions count
+	 */
+	long getEvictionCount();
+
+	/**
+	 * Get the number of cached results invalidated by an update or delete clause execution.
+	 * @return The cache invalidations count
+	 */
+	long getInvalidationCount();
+
+	/**
+	 * Get the current number of cached results.
+	 * @return The cache size
+	 */
+	int getSize();
+
+	/**
+	 * Get the current total weight of the cached results.
+	 * @return The cache weight
+	 */
+	long getWeight();
+
+}
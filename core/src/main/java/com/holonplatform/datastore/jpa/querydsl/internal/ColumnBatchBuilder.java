@@ -0,0 +1,532 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch;
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch.Column;
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch.ColumnType;
+import com.querydsl.core.types.Expression;
+
+/**
+ * Collects query result rows into {@link ColumnBatch}es.
+ * <p>
+ * A builder can be used in fixed size mode, in which the builder is full when the batch size is reached, or in
+ * growable mode, in which the column buffers grow as required. The dictionaries of the
+ * {@link ColumnType#DICTIONARY} columns are shared by all the batches built by the same builder.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class ColumnBatchBuilder {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private final List<Expression<?>> expressions;
+	private final ColumnType[] types;
+	private final Dictionary[] dictionaries;
+	private final int batchSize;
+	private final boolean growable;
+
+	private ColumnBuffer[] buffers;
+	private int capacity;
+	private int size;
+
+	/**
+	 * Constructor.
+	 * @param expressions The column expressions
+	 * @param batchSize The batch size, or the initial capacity in growable mode
+	 * @param growable Whether to use the growable mode
+	 */
+	public ColumnBatchBuilder(List<Expression<?>> expressions, int batchSize, boolean growable) {
+		super();
+		this.expressions = Collections.unmodifiableList(new ArrayList<>(expressions));
+		this.types = new ColumnType[expressions.size()];
+		this.dictionaries = new Dictionary[expressions.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = getColumnType(expressions.get(i).getType());
+			if (types[i] == ColumnType.DICTIONARY) {
+				dictionaries[i] = new Dictionary();
+			}
+		}
+		this.batchSize = Math.max(1, batchSize);
+		this.growable = growable;
+		reset();
+	}
+
+	/**
+	 * Get the column type to use for given expression type.
+	 * @param type The expression type
+	 * @return The column type
+	 */
+	static ColumnType getColumnType(Class<?> type) {
+		if (type == Long.class || type == long.class) {
+			return ColumnType.LONG;
+		}
+		if (type == Integer.class || type == int.class) {
+			return ColumnType.INT;
+		}
+		if (type == Double.class || type == double.class) {
+			return ColumnType.DOUBLE;
+		}
+		if (type == String.class || (type != null && type.isEnum())) {
+			return ColumnType.DICTIONARY;
+		}
+		return ColumnType.OBJECT;
+	}
+
+	/**
+	 * Add a query result row.
+	 * @param row The row: an array of column values or, for a single column batch, the column value
+	 * @throws IllegalStateException If the builder is full, or if the row does not match the columns count
+	 */
+	public void add(Object row) {
+		if (size == capacity) {
+			if (!growable) {
+				throw new IllegalStateException("The batch is full");
+			}
+			capacity = capacity + (capacity >> 1);
+			for (ColumnBuffer buffer : buffers) {
+				buffer.grow(capacity);
+			}
+		}
+		if (row instanceof Object[]) {
+			final Object[] values = (Object[]) row;
+			if (values.length != buffers.length) {
+				throw new IllegalStateException("The row values count [" + values.length
+						+ "] does not match the columns count [" + buffers.length + "]");
+			}
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i].set(size, values[i]);
+			}
+		} else if (buffers.length == 1) {
+			// single column scalar row
+			buffers[0].set(size, row);
+		} else {
+			throw new IllegalStateException(
+					"A single value row was provided for [" + buffers.length + "] columns: " + row);
+		}
+		size++;
+	}
+
+	/**
+	 * Get whether the current batch is full.
+	 * @return <code>true</code> if the batch size was reached in fixed size mode
+	 */
+	public boolean isFull() {
+		return !growable && size == capacity;
+	}
+
+	/**
+	 * Get whether the current batch is empty.
+	 * @return <code>true</code> if no row was added to the current batch
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Build the current batch and start a new one.
+	 * @return The batch
+	 */
+	public ColumnBatch build() {
+		final Column[] columns = new Column[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			columns[i] = buffers[i].toColumn();
+		}
+		final ColumnBatch batch = new DefaultColumnBatch(expressions, columns, size);
+		reset();
+		return batch;
+	}
+
+	private void reset() {
+		this.capacity = growable ? Math.max(batchSize, DEFAULT_CAPACITY) : batchSize;
+		this.size = 0;
+		this.buffers = new ColumnBuffer[types.length];
+		for (int i = 0; i < types.length; i++) {
+			buffers[i] = createBuffer(expressions.get(i), types[i], dictionaries[i], capacity);
+		}
+	}
+
+	private static ColumnBuffer createBuffer(Expression<?> expression, ColumnType type, Dictionary dictionary,
+			int capacity) {
+		switch (type) {
+		case LONG:
+			return new LongBuffer(expression, capacity);
+		case INT:
+			return new IntBuffer(expression, capacity);
+		case DOUBLE:
+			return new DoubleBuffer(expression, capacity);
+		case DICTIONARY:
+			return new DictionaryBuffer(expression, dictionary, capacity);
+		case OBJECT:
+		default:
+			return new ObjectBuffer(expression, capacity);
+		}
+	}
+
+	/**
+	 * Default {@link ColumnBatch} implementation.
+	 */
+	private static final class DefaultColumnBatch implements ColumnBatch {
+
+		private final List<Expression<?>> expressions;
+		private final Column[] columns;
+		private final int rowCount;
+
+		DefaultColumnBatch(List<Expression<?>> expressions, Column[] columns, int rowCount) {
+			super();
+			this.expressions = expressions;
+			this.columns = columns;
+			this.rowCount = rowCount;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		@Override
+		public List<Expression<?>> getExpressions() {
+			return expressions;
+		}
+
+		@Override
+		public Column getColumn(int index) {
+			return columns[index];
+		}
+
+		@Override
+		public String toString() {
+			return "ColumnBatch [rows=" + rowCount + ", columns=" + expressions + "]";
+		}
+
+	}
+
+	/**
+	 * Values dictionary, shared by the batches of a column.
+	 */
+	private static final class Dictionary {
+
+		private final Map<Object, Integer> codes = new HashMap<>();
+		private final List<Object> values = new ArrayList<>();
+
+		int encode(Object value) {
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		Object decode(int code) {
+			return values.get(code);
+		}
+
+		/**
+		 * Get a read-only view of the dictionary values currently available. Since the dictionary values are only
+		 * appended, the view remains consistent when new values are added.
+		 * @return The dictionary values
+		 */
+		List<Object> snapshot() {
+			return new DictionaryView(values, values.size());
+		}
+
+	}
+
+	private static final class DictionaryView extends AbstractList<Object> implements RandomAccess {
+
+		private final List<Object> values;
+		private final int size;
+
+		DictionaryView(List<Object> values, int size) {
+			super();
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		public Object get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return values.get(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+	private static abstract class ColumnBuffer implements Column {
+
+		private final Expression<?> expression;
+		private final BitSet nulls = new BitSet();
+
+		ColumnBuffer(Expression<?> expression) {
+			super();
+			this.expression = expression;
+		}
+
+		@Override
+		public Expression<?> getExpression() {
+			return expression;
+		}
+
+		@Override
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		void set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+			} else {
+				setValue(row, value);
+			}
+		}
+
+		/**
+		 * Get the column to expose when the batch is built.
+		 * @return The column
+		 */
+		Column toColumn() {
+			return this;
+		}
+
+		abstract void setValue(int row, Object value);
+
+		abstract void grow(int capacity);
+
+		@Override
+		public String toString() {
+			return getType() + " column [" + expression + "]";
+		}
+
+	}
+
+	private static final class LongBuffer extends ColumnBuffer {
+
+		private long[] values;
+
+		LongBuffer(Expression<?> expression, int capacity) {
+			super(expression);
+			this.values = new long[capacity];
+		}
+
+		@Override
+		public ColumnType getType() {
+			return ColumnType.LONG;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = ((Number) value).longValue();
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return isNull(row) ? null : values[row];
+		}
+
+		@Override
+		public long[] getLongs() {
+			return values;
+		}
+
+	}
+
+	private static final class IntBuffer extends ColumnBuffer {
+
+		private int[] values;
+
+		IntBuffer(Expression<?> expression, int capacity) {
+			super(expression);
+			this.values = new int[capacity];
+		}
+
+		@Override
+		public ColumnType getType() {
+			return ColumnType.INT;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = ((Number) value).intValue();
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return isNull(row) ? null : values[row];
+		}
+
+		@Override
+		public int[] getInts() {
+			return values;
+		}
+
+	}
+
+	private static final class DoubleBuffer extends ColumnBuffer {
+
+		private double[] values;
+
+		DoubleBuffer(Expression<?> expression, int capacity) {
+			super(expression);
+			this.values = new double[capacity];
+		}
+
+		@Override
+		public ColumnType getType() {
+			return ColumnType.DOUBLE;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = ((Number) value).doubleValue();
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return isNull(row) ? null : values[row];
+		}
+
+		@Override
+		public double[] getDoubles() {
+			return values;
+		}
+
+	}
+
+	private static final class DictionaryBuffer extends ColumnBuffer {
+
+		private final Dictionary dictionary;
+		private int[] codes;
+		private List<Object> snapshot;
+
+		DictionaryBuffer(Expression<?> expression, Dictionary dictionary, int capacity) {
+			super(expression);
+			this.dictionary = dictionary;
+			this.codes = new int[capacity];
+			Arrays.fill(codes, -1);
+		}
+
+		@Override
+		public ColumnType getType() {
+			return ColumnType.DICTIONARY;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			codes[row] = dictionary.encode(value);
+		}
+
+		@Override
+		void grow(int capacity) {
+			final int previous = codes.length;
+			codes = Arrays.copyOf(codes, capacity);
+			Arrays.fill(codes, previous, capacity, -1);
+		}
+
+		@Override
+		Column toColumn() {
+			this.snapshot = dictionary.snapshot();
+			return this;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			final int code = codes[row];
+			return (code < 0) ? null : dictionary.decode(code);
+		}
+
+		@Override
+		public int[] getCodes() {
+			return codes;
+		}
+
+		@Override
+		public List<Object> getDictionary() {
+			return (snapshot != null) ? snapshot : dictionary.snapshot();
+		}
+
+	}
+
+	private static final class ObjectBuffer extends ColumnBuffer {
+
+		private Object[] values;
+
+		ObjectBuffer(Expression<?> expression, int capacity) {
+			super(expression);
+			this.values = new Object[capacity];
+		}
+
+		@Override
+		public ColumnType getType() {
+			return ColumnType.OBJECT;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return values[row];
+		}
+
+		@Override
+		public Object[] getValues() {
+			return values;
+		}
+
+	}
+
+}
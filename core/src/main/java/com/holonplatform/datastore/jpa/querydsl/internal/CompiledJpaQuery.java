@@ -0,0 +1,664 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.JpaQueryHint;
+import com.holonplatform.datastore.jpa.ORMPlatform;
+import com.holonplatform.datastore.jpa.context.JpaContext;
+import com.holonplatform.datastore.jpa.querydsl.internal.CountQueryOptimizer.CountQuery;
+import com.holonplatform.datastore.jpa.querydsl.internal.JPQLQueryCache.CompiledJPQL;
+import com.holonplatform.datastore.jpa.querydsl.internal.JPQLQueryCache.QueryShape;
+import com.holonplatform.datastore.jpa.querydsl.internal.QueryResultCache.CachedOperation;
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+import com.querydsl.jpa.impl.JPAUtil;
+
+/**
+ * An immutable, compiled representation of a JPA query: the query metadata with the query configuration already
+ * applied, the JPQL templates to use and the query execution settings.
+ * <p>
+ * The JPQL statements are serialized at first use and then reused, so a compiled query can be executed any number of
+ * times, also concurrently, providing only the query parameters and modifiers.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class CompiledJpaQuery {
+
+	private final JpaContext context;
+	private final QueryMetadata metadata;
+	private final JPQLTemplates templates;
+	private final JPQLQueryCache queryCache;
+	private final BiFunction<JPQLTemplates, EntityManager, JPQLSerializer> serializerFactory;
+
+	private final JpaQueryHint hint;
+	private final LockModeType lockMode;
+	private final FlushModeType flushMode;
+	private final Integer fetchSize;
+	private final boolean readOnly;
+	private final boolean dedicatedEntityManager;
+	private final boolean entityProjection;
+
+	private final FactoryExpression<?> projection;
+
+	private static final String HIBERNATE_FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+	private static final String ECLIPSELINK_FETCH_SIZE_HINT = "eclipselink.jdbc.fetch-size";
+	private static final String HIBERNATE_READ_ONLY_HINT = "org.hibernate.readOnly";
+	private static final String ECLIPSELINK_READ_ONLY_HINT = "eclipselink.read-only";
+
+	private volatile Statement statement;
+	private volatile Statement countStatement;
+	private volatile Statement existsStatement;
+	private volatile Set<Class<?>> referencedTypes;
+
+	/**
+	 * Constructor.
+	 * @param context JPA context (not null)
+	 * @param metadata Query metadata, with the query configuration already applied (not null)
+	 * @param templates JPQL templates (not null)
+	 * @param queryCache JPQL statements cache (not null)
+	 * @param serializerFactory JPQL serializer factory (not null)
+	 * @param hint Optional query hint
+	 * @param lockMode Optional query lock mode
+	 * @param flushMode Optional query flush mode
+	 * @param fetchSize Optional JDBC fetch size
+	 * @param readOnly Whether the read-only mode is enabled
+	 * @param dedicatedEntityManager Whether to iterate the query results using a dedicated EntityManager
+	 */
+	public CompiledJpaQuery(JpaContext context, QueryMetadata metadata, JPQLTemplates templates,
+			JPQLQueryCache queryCache, BiFunction<JPQLTemplates, EntityManager, JPQLSerializer> serializerFactory,
+			JpaQueryHint hint, LockModeType lockMode, FlushModeType flushMode, Integer fetchSize, boolean readOnly,
+			boolean dedicatedEntityManager) {
+		super();
+		ObjectUtils.argumentNotNull(context, "JpaContext must be not null");
+		ObjectUtils.argumentNotNull(metadata, "QueryMetadata must be not null");
+		ObjectUtils.argumentNotNull(templates, "JPQLTemplates must be not null");
+		ObjectUtils.argumentNotNull(queryCache, "JPQLQueryCache must be not null");
+		ObjectUtils.argumentNotNull(serializerFactory, "Serializer factory must be not null");
+		if (metadata.getJoins().isEmpty()) {
+			throw new IllegalArgumentException("No sources given");
+		}
+		this.context = context;
+		this.metadata = metadata;
+		this.templates = templates;
+		this.queryCache = queryCache;
+		this.serializerFactory = serializerFactory;
+		this.hint = hint;
+		this.lockMode = lockMode;
+		this.flushMode = flushMode;
+		this.fetchSize = fetchSize;
+		this.readOnly = readOnly;
+		this.dedicatedEntityManager = dedicatedEntityManager;
+		final Expression<?> projection = metadata.getProjection();
+		this.projection = (projection instanceof FactoryExpression) ? (FactoryExpression<?>) projection : null;
+		this.entityProjection = isEntityProjection(projection);
+	}
+
+	/**
+	 * Get the compiled query metadata.
+	 * @return the query metadata
+	 */
+	public QueryMetadata getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Get the JPQL templates.
+	 * @return the JPQL templates
+	 */
+	public JPQLTemplates getTemplates() {
+		return templates;
+	}
+
+	/**
+	 * Get whether the query results must be iterated using a dedicated EntityManager, which is closed when the
+	 * iterator is closed.
+	 * @return <code>true</code> if a dedicated EntityManager must be used to iterate the query results
+	 */
+	public boolean isDedicatedEntityManager() {
+		return dedicatedEntityManager;
+	}
+
+	/**
+	 * Get the JPQL statement of the query, serializing it if not already available.
+	 * @param entityManager EntityManager to use
+	 * @param forCount Whether to obtain the count statement
+	 * @return the JPQL statement
+	 */
+	public String getQueryString(EntityManager entityManager, boolean forCount) {
+		return getStatement(entityManager, forCount).jpql.getQueryString();
+	}
+
+	/**
+	 * Create a JPA {@link Query} for this compiled query.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @param forCount Whether to create the count query
+	 * @return the JPA query
+	 */
+	public Query createQuery(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers, boolean forCount) {
+		return createQuery(entityManager, getStatement(entityManager, forCount), params, modifiers, !forCount);
+	}
+
+	private Query createQuery(EntityManager entityManager, Statement stmt, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers, boolean fetchResults) {
+		final String queryString = stmt.jpql.getQueryString();
+
+		// trace
+		context.trace(queryString.replace('\n', ' '));
+
+		final Query query = entityManager.createQuery(queryString);
+		JPAUtil.setConstants(query, stmt.jpql.getConstants(), stmt.shape.getParams(params));
+
+		// check restrictions
+		if (modifiers != null && modifiers.isRestricting()) {
+			Integer limit = modifiers.getLimitAsInteger();
+			Integer offset = modifiers.getOffsetAsInteger();
+			if (limit != null) {
+				query.setMaxResults(limit);
+			}
+			if (offset != null) {
+				query.setFirstResult(offset);
+			}
+		}
+
+		// check configuration
+		if (hint != null) {
+			query.setHint(hint.getName(), hint.getValue());
+		}
+		if (lockMode != null) {
+			query.setLockMode(lockMode);
+		}
+		if (flushMode != null) {
+			query.setFlushMode(flushMode);
+		}
+		if (fetchSize != null && fetchSize > 0 && fetchResults) {
+			getFetchSizeHint().ifPresent(h -> query.setHint(h, fetchSize));
+		}
+		// the read-only mode is ignored within a transaction, so that the query sees the transaction changes
+		if (readOnly && !entityManager.isJoinedToTransaction()) {
+			if (fetchResults) {
+				getReadOnlyHint().ifPresent(h -> query.setHint(h, Boolean.TRUE));
+			}
+			if (flushMode == null) {
+				query.setFlushMode(FlushModeType.COMMIT);
+			}
+		}
+
+		return query;
+	}
+
+	/**
+	 * Execute the query and get a lazy results iterator, backed by a provider cursor if supported by the ORM
+	 * platform. Results projection transformation is performed row by row.
+	 * <p>
+	 * Closing the returned iterator releases the cursor and runs given <code>onClose</code> callback.
+	 * </p>
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @param onClose Optional callback to invoke when the iterator is closed
+	 * @return The results iterator
+	 */
+	public CloseableIterator<?> iterate(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers, Runnable onClose) {
+		final CloseableIterator<?> iterator;
+		try {
+			final Query query = createQuery(entityManager, params, modifiers, false);
+			iterator = templates.getQueryHandler().iterate(query, getResultTransformer(query));
+		} catch (RuntimeException e) {
+			if (onClose != null) {
+				onClose.run();
+			}
+			throw e;
+		}
+		return (onClose == null) ? iterator : new ClosingIterator<>(iterator, onClose);
+	}
+
+	/**
+	 * Execute the query and get a results iterator which can be used after the operation which provided given
+	 * EntityManager is completed.
+	 * <p>
+	 * When the EntityManager is joined to a transaction, the iterator is backed by a provider cursor if supported by
+	 * the ORM platform, and it remains valid until the transaction completes. Otherwise the EntityManager may be
+	 * released as soon as the operation completes, so the results are read eagerly and the iterator is backed by the
+	 * results list.
+	 * </p>
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return The results iterator
+	 */
+	public CloseableIterator<?> iterate(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers) {
+		if (entityManager.isJoinedToTransaction()) {
+			return iterate(entityManager, params, modifiers, null);
+		}
+		return new IteratorAdapter<>(getResultList(entityManager, params, modifiers).iterator());
+	}
+
+	/**
+	 * Execute the query and get a lazy iterator over the raw result rows, without any projection transformation. Each
+	 * row is an array of the projected values, or a single value for single column projections.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return The result rows iterator
+	 */
+	public CloseableIterator<?> iterateRows(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers) {
+		final Query query = createQuery(entityManager, params, modifiers, false);
+		// without a projection, the Hibernate query handler iterates only the first column of each row
+		if (context.getORMPlatform().filter(platform -> platform == ORMPlatform.HIBERNATE).isPresent()) {
+			if (!entityManager.isJoinedToTransaction()) {
+				// a shared EntityManager is closed as soon as the query is executed
+				return new IteratorAdapter<>(query.getResultList().iterator());
+			}
+			final Stream<?> rows = query.getResultStream();
+			return new ClosingIterator<>(new IteratorAdapter<>(rows.iterator()), rows::close);
+		}
+		return templates.getQueryHandler().iterate(query, null);
+	}
+
+	/**
+	 * Get a {@link Stream} which iterates over given iterator and closes it when the stream is closed.
+	 * @param <T> Element type
+	 * @param iterator The iterator
+	 * @return The stream
+	 */
+	static <T> Stream<T> stream(CloseableIterator<T> iterator) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(iterator::close);
+	}
+
+	/**
+	 * Get the JDBC fetch size query hint name for the current ORM platform, if available.
+	 * @return Optional fetch size query hint name
+	 */
+	private Optional<String> getFetchSizeHint() {
+		return context.getORMPlatform().map(platform -> {
+			switch (platform) {
+			case HIBERNATE:
+				return HIBERNATE_FETCH_SIZE_HINT;
+			case ECLIPSELINK:
+				return ECLIPSELINK_FETCH_SIZE_HINT;
+			default:
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Get the read-only query hint name for the current ORM platform, if available.
+	 * @return Optional read-only query hint name
+	 */
+	private Optional<String> getReadOnlyHint() {
+		return context.getORMPlatform().map(platform -> {
+			switch (platform) {
+			case HIBERNATE:
+				return HIBERNATE_READ_ONLY_HINT;
+			case ECLIPSELINK:
+				return ECLIPSELINK_READ_ONLY_HINT;
+			default:
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Checks whether given query projection includes any entity. A <code>null</code> projection selects the query
+	 * root entity.
+	 * @param projection The query projection
+	 * @return <code>true</code> if the projection includes any entity
+	 */
+	private static boolean isEntityProjection(Expression<?> projection) {
+		if (projection == null || projection instanceof EntityPath) {
+			return true;
+		}
+		if (projection instanceof FactoryExpression) {
+			for (Expression<?> arg : ((FactoryExpression<?>) projection).getArgs()) {
+				if (isEntityProjection(arg)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Prepare the given query for results projection.
+	 * @param query The query
+	 * @return The {@link FactoryExpression} to use to transform the query results, or <code>null</code> if no result
+	 *         transformation is required
+	 */
+	public FactoryExpression<?> getResultTransformer(Query query) {
+		if (projection != null && !templates.getQueryHandler().transform(query, projection)) {
+			return projection;
+		}
+		return null;
+	}
+
+	/**
+	 * Execute the query and get the results.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return the query results
+	 */
+	public List<?> getResultList(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers) {
+		final Query query = createQuery(entityManager, params, modifiers, false);
+		return getResultList(query, getResultTransformer(query));
+	}
+
+	/**
+	 * Execute the query and get the raw result rows, without any projection transformation.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return the raw query result rows
+	 * @see #transform(List)
+	 */
+	public List<?> getRows(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers) {
+		return createQuery(entityManager, params, modifiers, false).getResultList();
+	}
+
+	/**
+	 * Transform given raw result rows using the query projection, if required.
+	 * @param rows The raw result rows
+	 * @return The transformed results
+	 * @see #getRows(EntityManager, Map, QueryModifiers)
+	 */
+	public List<?> transform(List<?> rows) {
+		return (projection != null) ? ProjectionTransformer.transform(rows, projection) : rows;
+	}
+
+	/**
+	 * Execute the query and get a single result.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return the query result
+	 * @throws javax.persistence.NoResultException If there is no result
+	 * @throws javax.persistence.NonUniqueResultException If more than one result is available
+	 */
+	public Object getSingleResult(EntityManager entityManager, Map<ParamExpression<?>, Object> params,
+			QueryModifiers modifiers) {
+		final Query query = createQuery(entityManager, params, modifiers, false);
+		return getSingleResult(query, getResultTransformer(query));
+	}
+
+	/**
+	 * Execute the count query.
+	 * <p>
+	 * A row count query, see {@link CountQueryOptimizer}, is executed scrolling and counting its rows.
+	 * </p>
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @return the results count
+	 */
+	public long getCount(EntityManager entityManager, Map<ParamExpression<?>, Object> params) {
+		final boolean rowCount = getStatement(entityManager, true).rowCount;
+		final Query query = createQuery(entityManager, params, null, true);
+		if (rowCount) {
+			// scroll and count the rows, without retaining them
+			long count = 0;
+			try (CloseableIterator<?> rows = templates.getQueryHandler().iterate(query, null)) {
+				while (rows.hasNext()) {
+					rows.next();
+					count++;
+				}
+			}
+			return count;
+		}
+		return (Long) query.getSingleResult();
+	}
+
+	/**
+	 * Execute the existence query, which projects a constant value and fetches at most one row.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @return <code>true</code> if at least one row matches the query, <code>false</code> otherwise
+	 */
+	public boolean exists(EntityManager entityManager, Map<ParamExpression<?>, Object> params) {
+		Statement stmt = existsStatement;
+		if (stmt == null) {
+			stmt = compile(entityManager, CountQueryOptimizer.exists(metadata), false, false);
+			existsStatement = stmt;
+		}
+		return !createQuery(entityManager, stmt, params, new QueryModifiers(1L, null), false).getResultList()
+				.isEmpty();
+	}
+
+	/**
+	 * Get a key which identifies the count query with given parameters, i.e. the count statement and the values bound
+	 * to its positional parameters.
+	 * @param entityManager EntityManager to use
+	 * @param params Query parameters
+	 * @return The count query key
+	 */
+	public Object getCountKey(EntityManager entityManager, Map<ParamExpression<?>, Object> params) {
+		return getStatementKey(getStatement(entityManager, true), params, 0);
+	}
+
+	/**
+	 * Get a key which identifies the results of given operation executed with given parameters and modifiers, i.e. the
+	 * operation, the statement, the values bound to its positional parameters, the query projection and the
+	 * modifiers.
+	 * @param entityManager EntityManager to use
+	 * @param operation The query operation
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @return The results key
+	 */
+	public Object getResultKey(EntityManager entityManager, CachedOperation operation,
+			Map<ParamExpression<?>, Object> params, QueryModifiers modifiers) {
+		if (operation == CachedOperation.COUNT) {
+			final List<Object> key = getStatementKey(getStatement(entityManager, true), params, 1);
+			key.add(operation);
+			return key;
+		}
+		final List<Object> key = getStatementKey(getStatement(entityManager, false), params, 4);
+		key.add(operation);
+		key.add(metadata.getProjection());
+		key.add((modifiers != null) ? modifiers.getLimit() : null);
+		key.add((modifiers != null) ? modifiers.getOffset() : null);
+		return key;
+	}
+
+	private static List<Object> getStatementKey(Statement stmt, Map<ParamExpression<?>, Object> params, int extra) {
+		final Map<ParamExpression<?>, Object> bindings = stmt.shape.getParams(params);
+		final List<Object> constants = stmt.jpql.getConstants();
+		final List<Object> key = new ArrayList<>(constants.size() + 1 + extra);
+		key.add(stmt.jpql.getQueryString());
+		for (Object constant : constants) {
+			key.add((constant instanceof ParamExpression && bindings != null) ? bindings.get(constant) : constant);
+		}
+		return key;
+	}
+
+	/**
+	 * Get the types referenced by this query.
+	 * @return The referenced types
+	 */
+	public Set<Class<?>> getReferencedTypes() {
+		Set<Class<?>> types = referencedTypes;
+		if (types == null) {
+			types = QueryResultCache.getReferencedTypes(metadata);
+			referencedTypes = types;
+		}
+		return types;
+	}
+
+	/**
+	 * Get whether the query projection includes any entity.
+	 * @return <code>true</code> if the projection includes any entity
+	 */
+	public boolean isEntityProjection() {
+		return entityProjection;
+	}
+
+	/**
+	 * Execute given query and get the results, using given projection for results transformation, if not
+	 * <code>null</code>.
+	 * @param query The query to execute
+	 * @param projection The optional projection
+	 * @return the query results
+	 */
+	static List<?> getResultList(Query query, FactoryExpression<?> projection) {
+		final List<?> results = query.getResultList();
+		return (projection != null) ? ProjectionTransformer.transform(results, projection) : results;
+	}
+
+	/**
+	 * Execute given query and get a single result, using given projection for result transformation, if not
+	 * <code>null</code>.
+	 * @param query The query to execute
+	 * @param projection The optional projection
+	 * @return the query result
+	 */
+	static Object getSingleResult(Query query, FactoryExpression<?> projection) {
+		final Object result = query.getSingleResult();
+		return (projection != null) ? ProjectionTransformer.newInstance(projection, result) : result;
+	}
+
+	private Statement getStatement(EntityManager entityManager, boolean forCount) {
+		Statement stmt = forCount ? countStatement : statement;
+		if (stmt == null) {
+			if (forCount) {
+				final CountQuery countQuery = CountQueryOptimizer.optimize(metadata, entityManager.getMetamodel());
+				stmt = compile(entityManager, countQuery.getMetadata(), true, countQuery.isRowCount());
+				countStatement = stmt;
+			} else {
+				stmt = compile(entityManager, metadata, false, false);
+				statement = stmt;
+			}
+		}
+		return stmt;
+	}
+
+	private Statement compile(EntityManager entityManager, QueryMetadata statementMetadata, boolean forCount,
+			boolean rowCount) {
+		final QueryShape shape = QueryShape.of(templates, statementMetadata, forCount);
+		final CompiledJPQL jpql = queryCache.get(shape, () -> {
+			JPQLSerializer serializer = serializerFactory.apply(templates, entityManager);
+			// row count queries are serialized as select queries whose results are counted
+			serializer.serialize(shape.getMetadata(), forCount && !rowCount, null);
+			return new CompiledJPQL(serializer.toString(), serializer.getConstants());
+		});
+		return new Statement(shape, jpql, rowCount);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final Statement stmt = statement;
+		return "CompiledJpaQuery [" + ((stmt != null) ? stmt.jpql.getQueryString() : metadata) + "]";
+	}
+
+	private static final class Statement {
+
+		final QueryShape shape;
+		final CompiledJPQL jpql;
+		final boolean rowCount;
+
+		Statement(QueryShape shape, CompiledJPQL jpql, boolean rowCount) {
+			super();
+			this.shape = shape;
+			this.jpql = jpql;
+			this.rowCount = rowCount;
+		}
+
+	}
+
+	/**
+	 * {@link CloseableIterator} which runs a callback after closing the concrete iterator.
+	 * @param <T> Element type
+	 */
+	private static final class ClosingIterator<T> implements CloseableIterator<T> {
+
+		private final CloseableIterator<T> iterator;
+		private final Runnable onClose;
+
+		private boolean closed = false;
+
+		ClosingIterator(CloseableIterator<T> iterator, Runnable onClose) {
+			super();
+			this.iterator = iterator;
+			this.onClose = onClose;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void remove() {
+			iterator.remove();
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				try {
+					iterator.close();
+				} finally {
+					onClose.run();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.JoinFlag;
+import com.querydsl.core.JoinType;
+import com.querydsl.core.QueryFlag;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.CollectionExpression;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.MapExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.core.types.Visitor;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.jpa.JPAQueryMixin;
+
+/**
+ * Builds the metadata of the count query of a JPA query, removing anything which cannot change the results count:
+ * <ul>
+ * <li>The <em>order by</em> clause is removed;</li>
+ * <li>The fetch join flags are removed, and the left joins to single valued associations which are not referenced by
+ * any other query clause are removed, since they cannot change the row count;</li>
+ * <li>For not distinct and not grouped queries, the projection is replaced by the query root, so that the rows are
+ * counted regardless of the projection values nullability;</li>
+ * <li>For distinct queries which project an entity, the projection is replaced by the entity identifier, to obtain a
+ * <code>count(distinct id)</code>.</li>
+ * <li>For queries grouped by the identifier or by a primitive attribute of the query root, without a <em>having</em>
+ * clause, the grouping is replaced by a <code>count(distinct attribute)</code>. The metamodel attribute optionality
+ * is not trusted, since some ORM platforms report nullable attributes as not optional.</li>
+ * </ul>
+ * <p>
+ * Any other grouped query and the distinct queries with a multiple values projection cannot be expressed as a single
+ * JPQL count statement, since JPQL does not support sub queries in the <em>from</em> clause: in that case the count
+ * query is executed as a row count query, i.e. a query which projects the rows count of each group (or the distinct
+ * values) and whose rows are scrolled and counted. The row count query does not retain the rows, but it still
+ * transfers a row for each group (or distinct value) from the database, so its cost is linear in the number of
+ * groups.
+ * </p>
+ * <p>
+ * The same reductions are used to build the existence queries, which project a constant value instead of any entity.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public final class CountQueryOptimizer {
+
+	private CountQueryOptimizer() {
+	}
+
+	/**
+	 * Build the count query of the query described by given metadata.
+	 * @param metadata The query metadata
+	 * @param metamodel The JPA metamodel, used to resolve the entities identifier. If <code>null</code>, the distinct
+	 *        entity projections are left unchanged
+	 * @return The count query
+	 */
+	public static CountQuery optimize(QueryMetadata metadata, Metamodel metamodel) {
+		final Expression<?> projection = metadata.getProjection();
+
+		Expression<?> countProjection = projection;
+		boolean rowCount = false;
+		if (!metadata.getGroupBy().isEmpty()) {
+			final List<Expression<?>> groupBy = metadata.getGroupBy();
+			if (groupBy.size() == 1 && metadata.getHaving() == null
+					&& isNotNullableRootAttribute(metadata, groupBy.get(0), metamodel)) {
+				// count the distinct group key values, which are never null
+				return new CountQuery(reduce(metadata, groupBy.get(0), true, false), false);
+			}
+			// count the groups: the rows count of each group is never null, unlike the group keys, so that the rows
+			// can be scrolled by any ORM platform. A distinct query is counted by its distinct projection values.
+			if (!metadata.isDistinct()) {
+				countProjection = Expressions.numberOperation(Long.class, Ops.AggOps.COUNT_AGG,
+						metadata.getJoins().get(0).getTarget());
+			}
+			rowCount = true;
+		} else if (metadata.isDistinct()) {
+			if (projection instanceof FactoryExpression) {
+				final List<Expression<?>> args = ((FactoryExpression<?>) projection).getArgs();
+				if (args.size() == 1) {
+					countProjection = getDistinctProjection(args.get(0), metamodel);
+				} else {
+					// count the distinct values
+					rowCount = true;
+				}
+			} else if (projection != null) {
+				countProjection = getDistinctProjection(projection, metamodel);
+			}
+		} else {
+			// count the root rows
+			countProjection = null;
+		}
+
+		return new CountQuery(reduce(metadata, countProjection, metadata.isDistinct()), rowCount);
+	}
+
+	/**
+	 * Build the existence query of the query described by given metadata, i.e. a query which projects a constant
+	 * value and is meant to be executed with a maximum of one result.
+	 * @param metadata The query metadata
+	 * @return The existence query metadata
+	 */
+	public static QueryMetadata exists(QueryMetadata metadata) {
+		return reduce(metadata, Expressions.numberTemplate(Integer.class, "1"), false);
+	}
+
+	/**
+	 * Build the query which selects the distinct values of given expression among the rows of the query described by
+	 * given metadata.
+	 * @param metadata The query metadata
+	 * @param expression The expression whose distinct values are to be selected
+	 * @return The distinct values query metadata
+	 */
+	public static QueryMetadata distinctValues(QueryMetadata metadata, Expression<?> expression) {
+		return reduce(metadata, expression, true);
+	}
+
+	/**
+	 * Build the query which selects given aggregate expression over the rows of the query described by given metadata.
+	 * @param metadata The query metadata
+	 * @param expression The aggregate expression to select
+	 * @return The aggregate query metadata
+	 */
+	public static QueryMetadata aggregate(QueryMetadata metadata, Expression<?> expression) {
+		return reduce(metadata, expression, false);
+	}
+
+	/**
+	 * Build a copy of given query metadata with given projection, without the <em>order by</em> clause, the fetch join
+	 * flags and the not referenced left joins to single valued associations.
+	 * @param metadata The query metadata
+	 * @param projection The projection to use, <code>null</code> to use the query root
+	 * @param distinct Whether the query is distinct
+	 * @return The reduced query metadata
+	 */
+	private static QueryMetadata reduce(QueryMetadata metadata, Expression<?> projection, boolean distinct) {
+		return reduce(metadata, projection, distinct, true);
+	}
+
+	/**
+	 * Build a copy of given query metadata with given projection, without the <em>order by</em> clause, the fetch join
+	 * flags and the not referenced left joins to single valued associations.
+	 * @param metadata The query metadata
+	 * @param projection The projection to use, <code>null</code> to use the query root
+	 * @param distinct Whether the query is distinct
+	 * @param grouped Whether to keep the <em>group by</em> clause
+	 * @return The reduced query metadata
+	 */
+	private static QueryMetadata reduce(QueryMetadata metadata, Expression<?> projection, boolean distinct,
+			boolean grouped) {
+		final List<JoinExpression> joins = metadata.getJoins();
+
+		// remove the joins which cannot change the row count
+		final List<JoinExpression> keptJoins = new ArrayList<>(joins);
+		for (int i = keptJoins.size() - 1; i > 0; i--) {
+			final JoinExpression join = keptJoins.get(i);
+			if (isRemovable(join)) {
+				final Set<Expression<?>> references = new HashSet<>();
+				for (JoinExpression other : keptJoins) {
+					if (other != join) {
+						collectJoinReferences(other, references);
+					}
+				}
+				collectReferences(metadata.getWhere(), references);
+				collectReferences(metadata.getHaving(), references);
+				if (grouped) {
+					for (Expression<?> expression : metadata.getGroupBy()) {
+						collectReferences(expression, references);
+					}
+				}
+				collectReferences(projection, references);
+				if (!references.contains(getJoinAlias(join))) {
+					keptJoins.remove(i);
+				}
+			}
+		}
+
+		final DefaultQueryMetadata reduced = new DefaultQueryMetadata().noValidate();
+		for (JoinExpression join : keptJoins) {
+			reduced.addJoin(join.getType(), join.getTarget());
+			if (join.getCondition() != null) {
+				reduced.addJoinCondition(join.getCondition());
+			}
+			for (JoinFlag flag : join.getFlags()) {
+				if (!JPAQueryMixin.FETCH.equals(flag) && !JPAQueryMixin.FETCH_ALL_PROPERTIES.equals(flag)) {
+					reduced.addJoinFlag(flag);
+				}
+			}
+		}
+		if (metadata.getWhere() != null) {
+			reduced.addWhere(metadata.getWhere());
+		}
+		if (grouped) {
+			for (Expression<?> expression : metadata.getGroupBy()) {
+				reduced.addGroupBy(expression);
+			}
+			if (metadata.getHaving() != null) {
+				reduced.addHaving(metadata.getHaving());
+			}
+		}
+		for (QueryFlag flag : metadata.getFlags()) {
+			reduced.addFlag(flag);
+		}
+		for (Map.Entry<ParamExpression<?>, Object> param : metadata.getParams().entrySet()) {
+			setParam(reduced, param.getKey(), param.getValue());
+		}
+		reduced.setDistinct(distinct);
+		if (projection != null) {
+			reduced.setProjection(projection);
+		}
+		return reduced;
+	}
+
+	/**
+	 * Get the projection to count the distinct values of given expression: for entity paths, the entity identifier
+	 * path is used, if available.
+	 * @param expression The distinct expression
+	 * @param metamodel The JPA metamodel
+	 * @return The distinct count projection
+	 */
+	private static Expression<?> getDistinctProjection(Expression<?> expression, Metamodel metamodel) {
+		if (metamodel != null && expression instanceof EntityPath) {
+			final Path<?> path = (Path<?>) expression;
+			try {
+				final EntityType<?> entityType = metamodel.entity(path.getType());
+				if (entityType.hasSingleIdAttribute()) {
+					final SingularAttribute<?, ?> id = entityType.getId(entityType.getIdType().getJavaType());
+					return ExpressionUtils.path(id.getJavaType(), path, id.getName());
+				}
+			} catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+				// not an entity
+			}
+		}
+		return expression;
+	}
+
+	/**
+	 * Checks whether given expression is a not nullable basic attribute of the query root entity, i.e. an identifier
+	 * or a primitive attribute.
+	 * @param metadata The query metadata
+	 * @param expression The expression to check
+	 * @param metamodel The JPA metamodel
+	 * @return <code>true</code> if the expression values are never <code>null</code>
+	 */
+	private static boolean isNotNullableRootAttribute(QueryMetadata metadata, Expression<?> expression,
+			Metamodel metamodel) {
+		if (metamodel == null || !(expression instanceof Path)) {
+			return false;
+		}
+		final Path<?> parent = ((Path<?>) expression).getMetadata().getParent();
+		if (!(parent instanceof EntityPath) || parent.getMetadata().getParent() != null
+				|| !parent.equals(metadata.getJoins().get(0).getTarget())) {
+			return false;
+		}
+		try {
+			final Attribute<?, ?> attribute = metamodel.entity(parent.getType())
+					.getAttribute(((Path<?>) expression).getMetadata().getName());
+			if (!(attribute instanceof SingularAttribute)
+					|| attribute.getPersistentAttributeType() != PersistentAttributeType.BASIC) {
+				return false;
+			}
+			final SingularAttribute<?, ?> singular = (SingularAttribute<?, ?>) attribute;
+			return singular.isId() || singular.getJavaType().isPrimitive();
+		} catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+			// not an entity attribute
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether given join is a left join to a single valued association, which cannot change the row count.
+	 * @param join The join
+	 * @return <code>true</code> if the join can be removed when not referenced
+	 */
+	private static boolean isRemovable(JoinExpression join) {
+		if (join.getType() != JoinType.LEFTJOIN || getJoinAlias(join) == null) {
+			return false;
+		}
+		final Expression<?> association = ((Operation<?>) join.getTarget()).getArg(0);
+		if (!(association instanceof Path) || ((Path<?>) association).getMetadata().getParent() == null) {
+			return false;
+		}
+		return !(association instanceof CollectionExpression || association instanceof MapExpression
+				|| Collection.class.isAssignableFrom(association.getType())
+				|| Map.class.isAssignableFrom(association.getType()));
+	}
+
+	/**
+	 * Get the alias of given join, if the join target is an aliased association.
+	 * @param join The join
+	 * @return The join alias, <code>null</code> if not available
+	 */
+	private static Expression<?> getJoinAlias(JoinExpression join) {
+		final Expression<?> target = join.getTarget();
+		if (target instanceof Operation && ((Operation<?>) target).getOperator() == Ops.ALIAS) {
+			final Expression<?> alias = ((Operation<?>) target).getArg(1);
+			return (alias instanceof Path) ? ((Path<?>) alias).getRoot() : null;
+		}
+		return null;
+	}
+
+	private static void collectJoinReferences(JoinExpression join, Set<Expression<?>> references) {
+		final Expression<?> target = join.getTarget();
+		if (target instanceof Operation && ((Operation<?>) target).getOperator() == Ops.ALIAS) {
+			// only the association path refers to other aliases
+			collectReferences(((Operation<?>) target).getArg(0), references);
+		} else {
+			collectReferences(target, references);
+		}
+		collectReferences(join.getCondition(), references);
+	}
+
+	private static void collectReferences(Expression<?> expression, Set<Expression<?>> references) {
+		if (expression != null) {
+			expression.accept(ReferencesCollector.INSTANCE, references);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <P> void setParam(DefaultQueryMetadata metadata, ParamExpression<P> param, Object value) {
+		metadata.setParam(param, (P) value);
+	}
+
+	/**
+	 * A count query.
+	 */
+	public static final class CountQuery {
+
+		private final QueryMetadata metadata;
+		private final boolean rowCount;
+
+		CountQuery(QueryMetadata metadata, boolean rowCount) {
+			super();
+			this.metadata = metadata;
+			this.rowCount = rowCount;
+		}
+
+		/**
+		 * Get the count query metadata.
+		 * @return the count query metadata
+		 */
+		public QueryMetadata getMetadata() {
+			return metadata;
+		}
+
+		/**
+		 * Get whether the count query must be executed as a row count query, i.e. serialized as a select query whose
+		 * results are counted.
+		 * @return <code>true</code> for a row count query, <code>false</code> for a JPQL count statement
+		 */
+		public boolean isRowCount() {
+			return rowCount;
+		}
+
+	}
+
+	/**
+	 * Visitor which collects the root paths referenced by an expression.
+	 */
+	private enum ReferencesCollector implements Visitor<Void, Set<Expression<?>>> {
+
+		INSTANCE;
+
+		@Override
+		public Void visit(Constant<?> expr, Set<Expression<?>> context) {
+			return null;
+		}
+
+		@Override
+		public Void visit(FactoryExpression<?> expr, Set<Expression<?>> context) {
+			for (Expression<?> arg : expr.getArgs()) {
+				arg.accept(this, context);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(Operation<?> expr, Set<Expression<?>> context) {
+			for (Expression<?> arg : expr.getArgs()) {
+				arg.accept(this, context);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(ParamExpression<?> expr, Set<Expression<?>> context) {
+			return null;
+		}
+
+		@Override
+		public Void visit(Path<?> expr, Set<Expression<?>> context) {
+			context.add(expr.getRoot());
+			return null;
+		}
+
+		@Override
+		public Void visit(SubQueryExpression<?> expr, Set<Expression<?>> context) {
+			final QueryMetadata metadata = expr.getMetadata();
+			for (JoinExpression join : metadata.getJoins()) {
+				collectJoinReferences(join, context);
+			}
+			collectReferences(metadata.getProjection(), context);
+			collectReferences(metadata.getWhere(), context);
+			collectReferences(metadata.getHaving(), context);
+			for (Expression<?> expression : metadata.getGroupBy()) {
+				collectReferences(expression, context);
+			}
+			for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+				collectReferences(order.getTarget(), context);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(TemplateExpression<?> expr, Set<Expression<?>> context) {
+			for (Object arg : expr.getArgs()) {
+				if (arg instanceof Expression) {
+					((Expression<?>) arg).accept(this, context);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
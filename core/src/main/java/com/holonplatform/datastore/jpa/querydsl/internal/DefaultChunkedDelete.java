@@ -0,0 +1,404 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type.PersistenceType;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.ChunkedDelete;
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.JoinType;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.ComparablePath;
+import com.querydsl.core.types.dsl.Expressions;
+
+/**
+ * Default {@link ChunkedDelete} implementation.
+ *
+ * @since 5.7.1
+ */
+public class DefaultChunkedDelete implements ChunkedDelete {
+
+	private final JpaOperationContext operationContext;
+
+	private final EntityPath<?> entity;
+
+	private final Predicate where;
+
+	private final int chunkSize;
+
+	private int parallelism = 1;
+
+	private Executor executor;
+
+	private LongConsumer progressListener;
+
+	/**
+	 * Constructor.
+	 * @param operationContext Operation context (not null)
+	 * @param metadata The delete clause metadata (not null)
+	 * @param chunkSize The maximum number of entities to delete in each chunk, must be greater than 0
+	 */
+	public DefaultChunkedDelete(JpaOperationContext operationContext, QueryMetadata metadata, int chunkSize) {
+		super();
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		ObjectUtils.argumentNotNull(metadata, "Delete clause metadata must be not null");
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be greater than 0");
+		}
+		this.operationContext = operationContext;
+		this.entity = (EntityPath<?>) metadata.getJoins().get(0).getTarget();
+		this.where = metadata.getWhere();
+		this.chunkSize = chunkSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ChunkedDelete#parallelism(int)
+	 */
+	@Override
+	public ChunkedDelete parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than 0");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ChunkedDelete#executor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public ChunkedDelete executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ChunkedDelete#progress(java.util.function.LongConsumer)
+	 */
+	@Override
+	public ChunkedDelete progress(LongConsumer progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ChunkedDelete#execute()
+	 */
+	@Override
+	public long execute() {
+		final ComparablePath<?> id = getIdentifierPath(operationContext.getEntityManagerFactory().getMetamodel());
+		final AtomicLong deleted = new AtomicLong();
+		// check the transaction support outside of the operation context, to not wrap the exception
+		final TransactionSupport transactionSupport = operationContext.withEntityManager(entityManager -> {
+			return getTransactionSupport(entityManager);
+		});
+		if (transactionSupport == TransactionSupport.NONE) {
+			throw new IllegalStateException("The chunks cannot be deleted in dedicated resource-local transactions, "
+					+ "since the EntityManager is a JTA or a shared EntityManager: "
+					+ "execute the chunked delete within a transaction");
+		}
+		if (transactionSupport == TransactionSupport.JOINED) {
+			if (parallelism > 1) {
+				operationContext.traceOperation("Chunked delete: active transaction, chunks deleted sequentially");
+			}
+			// all the chunks are deleted within the current transaction
+			operationContext.withEntityManager(entityManager -> {
+				Object lastId = null;
+				List<?> ids;
+				do {
+					ids = selectChunk(entityManager, id, lastId);
+					if (ids.isEmpty()) {
+						break;
+					}
+					lastId = ids.get(ids.size() - 1);
+					chunkDeleted(deleted, deleteChunk(entityManager, id, ids));
+				} while (ids.size() == chunkSize);
+				return null;
+			});
+		} else {
+			executeInChunkTransactions(id, deleted);
+		}
+		return deleted.get();
+	}
+
+	/**
+	 * Delete the chunks each one in its own transaction.
+	 * @param id Entity identifier path
+	 * @param deleted Deleted entities counter
+	 */
+	private void executeInChunkTransactions(ComparablePath<?> id, AtomicLong deleted) {
+		final Executor deleteExecutor = (executor != null) ? executor : QueryExecutors.getDefaultExecutor();
+		final Deque<CompletableFuture<Void>> pending = new ArrayDeque<>();
+		try {
+			Object lastId = null;
+			List<?> ids;
+			do {
+				final Object after = lastId;
+				// concurrent chunks may be still deleting the entities before the last identifier: the next chunk
+				// is selected after the last identifier, and each chunk re-applies the delete clause predicate, so
+				// the entities which do not match it anymore are never deleted
+				ids = operationContext.withEntityManager(entityManager -> {
+					return selectChunk(entityManager, id, after);
+				});
+				if (ids.isEmpty()) {
+					break;
+				}
+				lastId = ids.get(ids.size() - 1);
+				final List<?> chunk = ids;
+				if (parallelism > 1) {
+					// bound the chunks deleted concurrently
+					if (pending.size() >= parallelism) {
+						await(pending.removeFirst());
+					}
+					pending.addLast(CompletableFuture.runAsync(() -> deleteChunkInTransaction(id, chunk, deleted),
+							deleteExecutor));
+				} else {
+					deleteChunkInTransaction(id, chunk, deleted);
+				}
+			} while (ids.size() == chunkSize);
+			while (!pending.isEmpty()) {
+				await(pending.removeFirst());
+			}
+		} catch (RuntimeException e) {
+			// wait for the chunks which are still running before failing
+			for (CompletableFuture<Void> future : pending) {
+				try {
+					future.join();
+				} catch (RuntimeException fe) {
+					e.addSuppressed(fe);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Select the identifiers of the next chunk of entities to delete.
+	 * @param entityManager EntityManager
+	 * @param id Entity identifier path
+	 * @param lastId The last identifier of the previous chunk, <code>null</code> for the first chunk
+	 * @return The chunk identifiers, in identifier order
+	 */
+	private List<?> selectChunk(EntityManager entityManager, ComparablePath<?> id, Object lastId) {
+		final DefaultJpaQuery<?> query = new DefaultJpaQuery<>(operationContext);
+		query.select(id).from(entity);
+		if (where != null) {
+			query.where(where);
+		}
+		if (lastId != null) {
+			query.where(ExpressionUtils.predicate(Ops.GT, id, Expressions.constant(lastId)));
+		}
+		query.orderBy(id.asc()).limit(chunkSize);
+		return query.fetch(entityManager);
+	}
+
+	/**
+	 * Delete the chunk entities with given identifiers, if they still match the delete clause predicate.
+	 * @param entityManager EntityManager
+	 * @param id Entity identifier path
+	 * @param ids The identifiers of the entities to delete
+	 * @return The number of deleted entities
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private long deleteChunk(EntityManager entityManager, ComparablePath<?> id, List<?> ids) {
+		final QueryMetadata metadata = new DefaultQueryMetadata();
+		metadata.addJoin(JoinType.DEFAULT, entity);
+		if (where != null) {
+			metadata.addWhere(where);
+		}
+		metadata.addWhere(ExpressionUtils.in((Expression) id, (Collection) ids));
+		final DmlBatch batch = new DmlBatch();
+		batch.add(metadata, null);
+		return batch.execute(operationContext, entityManager, entity.getType())[0];
+	}
+
+	/**
+	 * Delete the chunk entities with given identifiers in a dedicated resource-local transaction, using the
+	 * EntityManager provided by the operation context to the current thread.
+	 * @param id Entity identifier path
+	 * @param ids The identifiers of the entities to delete
+	 * @param deleted Deleted entities counter
+	 * @throws IllegalStateException If the EntityManager does not support resource-local transactions
+	 */
+	private void deleteChunkInTransaction(ComparablePath<?> id, List<?> ids, AtomicLong deleted) {
+		final long count = operationContext.withEntityManager(entityManager -> {
+			if (entityManager.isJoinedToTransaction()) {
+				// the EntityManager provided to the current thread is already joined to a transaction
+				return deleteChunk(entityManager, id, ids);
+			}
+			final EntityTransaction transaction = getTransaction(entityManager);
+			transaction.begin();
+			try {
+				final long chunkCount = deleteChunk(entityManager, id, ids);
+				transaction.commit();
+				return chunkCount;
+			} catch (RuntimeException e) {
+				if (transaction.isActive()) {
+					transaction.rollback();
+				}
+				throw e;
+			}
+		});
+		chunkDeleted(deleted, count);
+	}
+
+	/**
+	 * Get the transaction support of given EntityManager.
+	 * @param entityManager EntityManager
+	 * @return The transaction support
+	 */
+	private static TransactionSupport getTransactionSupport(EntityManager entityManager) {
+		if (entityManager.isJoinedToTransaction()) {
+			return TransactionSupport.JOINED;
+		}
+		try {
+			entityManager.getTransaction();
+			return TransactionSupport.RESOURCE_LOCAL;
+		} catch (@SuppressWarnings("unused") IllegalStateException e) {
+			return TransactionSupport.NONE;
+		}
+	}
+
+	/**
+	 * Get the resource-local transaction of given EntityManager.
+	 * @param entityManager EntityManager
+	 * @return The EntityManager transaction
+	 * @throws IllegalStateException If the EntityManager is a JTA or a container managed shared EntityManager
+	 */
+	private static EntityTransaction getTransaction(EntityManager entityManager) {
+		try {
+			return entityManager.getTransaction();
+		} catch (IllegalStateException e) {
+			throw new IllegalStateException("The chunks cannot be deleted in dedicated resource-local transactions, "
+					+ "since the EntityManager is a JTA or a shared EntityManager: "
+					+ "execute the chunked delete within a transaction", e);
+		}
+	}
+
+	/**
+	 * Update the deleted entities counter and notify the progress listener, if any.
+	 * @param deleted Deleted entities counter
+	 * @param count The number of entities deleted by the chunk
+	 */
+	private void chunkDeleted(AtomicLong deleted, long count) {
+		synchronized (deleted) {
+			final long total = deleted.addAndGet(count);
+			operationContext
+					.traceOperation("Deleted chunk of [" + count + "] entities, total [" + total + "] entities");
+			if (progressListener != null) {
+				progressListener.accept(total);
+			}
+		}
+	}
+
+	/**
+	 * Get the identifier path of the entity to delete.
+	 * @param metamodel JPA metamodel
+	 * @return The identifier path
+	 * @throws IllegalStateException If the entity has not a single, basic and comparable identifier attribute
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ComparablePath<?> getIdentifierPath(Metamodel metamodel) {
+		final EntityType<?> entityType = metamodel.entity(entity.getType());
+		if (entityType.hasSingleIdAttribute()) {
+			for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+				if (attribute.isId() && attribute.getType().getPersistenceType() == PersistenceType.BASIC) {
+					final Class<?> idType = MethodType.methodType(attribute.getJavaType()).wrap().returnType();
+					if (Comparable.class.isAssignableFrom(idType)) {
+						return Expressions.comparablePath((Class) idType, entity, attribute.getName());
+					}
+				}
+			}
+		}
+		throw new IllegalStateException("Chunked delete requires an entity with a single, basic and comparable "
+				+ "identifier attribute: [" + entity.getType().getName() + "]");
+	}
+
+	/**
+	 * Wait for given chunk deletion to complete, propagating its failure, if any.
+	 * @param future The chunk deletion future
+	 */
+	private static void await(CompletableFuture<?> future) {
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DefaultChunkedDelete [entity=" + entity + ", chunkSize=" + chunkSize + ", parallelism=" + parallelism
+				+ "]";
+	}
+
+	/**
+	 * The transaction support of an EntityManager.
+	 */
+	private enum TransactionSupport {
+
+		/**
+		 * The EntityManager is joined to a transaction
+		 */
+		JOINED,
+
+		/**
+		 * The EntityManager supports resource-local transactions
+		 */
+		RESOURCE_LOCAL,
+
+		/**
+		 * The EntityManager is not joined to a transaction and does not support resource-local transactions
+		 */
+		NONE;
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp;
+
+/**
+ * Default {@link EntityPathWarmUp} implementation.
+ *
+ * @since 5.7.1
+ */
+public class DefaultEntityPathWarmUp implements EntityPathWarmUp {
+
+	private final int resolvedCount;
+	private final List<Class<?>> failedEntityClasses;
+	private final long elapsedNanos;
+
+	public DefaultEntityPathWarmUp(int resolvedCount, List<Class<?>> failedEntityClasses, long elapsedNanos) {
+		super();
+		this.resolvedCount = resolvedCount;
+		this.failedEntityClasses = (failedEntityClasses != null) ? Collections.unmodifiableList(failedEntityClasses)
+				: Collections.emptyList();
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp#getResolvedCount()
+	 */
+	@Override
+	public int getResolvedCount() {
+		return resolvedCount;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp#getFailedEntityClasses()
+	 */
+	@Override
+	public List<Class<?>> getFailedEntityClasses() {
+		return failedEntityClasses;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp#getElapsedMillis()
+	 */
+	@Override
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Entity paths warm-up: resolved [" + resolvedCount + "] failed " + failedEntityClasses + " in ["
+				+ getElapsedMillis() + "] ms";
+	}
+
+}
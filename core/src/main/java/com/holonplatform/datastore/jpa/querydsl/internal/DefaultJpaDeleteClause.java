@@ -16,11 +16,13 @@
 package com.holonplatform.datastore.jpa.querydsl.internal;
 
 import java.util.List;
+import java.util.stream.LongStream;
 
 import javax.persistence.Query;
 
 import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.ChunkedDelete;
 import com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause;
 import com.querydsl.core.JoinType;
 import com.querydsl.core.support.QueryMixin;
@@ -42,6 +44,8 @@ public class DefaultJpaDeleteClause implements JpaDeleteClause {
 
 	private final QueryMixin<?> queryMixin = new JPAQueryMixin<Void>();
 
+	private final DmlBatch batch = new DmlBatch();
+
 	public DefaultJpaDeleteClause(JpaOperationContext operationContext, EntityPath<?> entity) {
 		super();
 		ObjectUtils.argumentNotNull(entity, "Entity to delete must be not null");
@@ -61,12 +65,54 @@ public class DefaultJpaDeleteClause implements JpaDeleteClause {
 		return this;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause#addBatch()
+	 */
+	@Override
+	public JpaDeleteClause addBatch() {
+		batch.add(queryMixin.getMetadata().clone(), null);
+		// reset the clause state
+		queryMixin.getMetadata().clearWhere();
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause#getBatchCount()
+	 */
+	@Override
+	public int getBatchCount() {
+		return batch.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause#executeBatch()
+	 */
+	@Override
+	public long[] executeBatch() {
+		return batch.execute(operationContext, queryMixin.getMetadata().getJoins().get(0).getTarget().getType());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause#deleteInChunks(int)
+	 */
+	@Override
+	public ChunkedDelete deleteInChunks(int chunkSize) {
+		return new DefaultChunkedDelete(operationContext, queryMixin.getMetadata().clone(), chunkSize);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.dml.DMLClause#execute()
 	 */
 	@Override
 	public long execute() {
+		if (batch.size() > 0) {
+			return LongStream.of(executeBatch()).sum();
+		}
 		return operationContext.withEntityManager(entityManager -> {
 
 			JPQLSerializer serializer = new JPQLSerializer(JPAProvider.getTemplates(entityManager), entityManager);
@@ -80,7 +126,11 @@ public class DefaultJpaDeleteClause implements JpaDeleteClause {
 			Query query = entityManager.createQuery(queryString);
 
 			JPAUtil.setConstants(query, constants, queryMixin.getMetadata().getParams());
-			return Long.valueOf(query.executeUpdate());
+
+			// invalidate the cached query results which refer to the entity
+			return QueryResultCache.get(operationContext.getEntityManagerFactory()).update(entityManager,
+					queryMixin.getMetadata().getJoins().get(0).getTarget().getType(),
+					() -> Long.valueOf(query.executeUpdate()));
 
 		});
 	}
@@ -15,15 +15,33 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.internal;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.persistence.EntityManager;
 import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
 import javax.persistence.Query;
+import javax.persistence.metamodel.Metamodel;
 
 import com.holonplatform.core.Expression.InvalidExpressionException;
 import com.holonplatform.core.ExpressionResolver;
@@ -39,10 +57,16 @@ import com.holonplatform.core.query.QuerySort;
 import com.holonplatform.datastore.jpa.JpaDatastore;
 import com.holonplatform.datastore.jpa.JpaQueryHint;
 import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStrategy;
 import com.holonplatform.datastore.jpa.querydsl.JpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.internal.QueryResultCache.CachedOperation;
 import com.holonplatform.datastore.jpa.querydsl.internal.expressions.OrderSpecifierExpression;
 import com.holonplatform.datastore.jpa.querydsl.internal.expressions.PredicateExpression;
 import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslAggregation;
+import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslExpressionResolverRegistry;
 import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslResolutionContext;
 import com.holonplatform.datastore.jpa.querydsl.internal.resolvers.QueryDslAggregationResolver;
 import com.holonplatform.datastore.jpa.querydsl.internal.resolvers.QueryDslCollectionExpressionResolver;
@@ -73,11 +97,14 @@ import com.querydsl.core.QueryModifiers;
 import com.querydsl.core.QueryResults;
 import com.querydsl.core.ResultTransformer;
 import com.querydsl.core.Tuple;
+import com.querydsl.core.support.QueryMixin;
 import com.querydsl.core.types.CollectionExpression;
 import com.querydsl.core.types.ConstantImpl;
 import com.querydsl.core.types.EntityPath;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
 import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.FactoryExpressionUtils;
 import com.querydsl.core.types.MapExpression;
 import com.querydsl.core.types.Ops;
 import com.querydsl.core.types.OrderSpecifier;
@@ -90,12 +117,13 @@ import com.querydsl.core.types.Visitor;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.BooleanOperation;
 import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.Param;
 import com.querydsl.jpa.JPAQueryMixin;
 import com.querydsl.jpa.JPQLQuery;
 import com.querydsl.jpa.JPQLSerializer;
 import com.querydsl.jpa.JPQLTemplates;
 import com.querydsl.jpa.impl.JPAProvider;
-import com.querydsl.jpa.impl.JPAUtil;
 
 /**
  * Default {@link JpaQuery} implementation.
@@ -106,6 +134,33 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 
 	private static final long serialVersionUID = 5196596843500361538L;
 
+	/**
+	 * Name of the parameter to which the key values are bound by {@link #fetchExists(Expression, List)}
+	 */
+	private static final String EXISTS_KEYS_PARAMETER = "__holon_exists_keys";
+
+	/**
+	 * Default read-only mode: enabled if the {@link JpaQuery#READ_ONLY_PROPERTY} system property is
+	 * <code>true</code>
+	 */
+	private static final Boolean DEFAULT_READ_ONLY = Boolean.getBoolean(READ_ONLY_PROPERTY);
+
+	/**
+	 * Default expression resolvers
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final List<ExpressionResolver> DEFAULT_RESOLVERS = Collections.unmodifiableList(Arrays.asList(
+			QueryDslTargetEntityPathResolver.INSTANCE, QueryDslDataTargetResolver.INSTANCE,
+			QueryDslPropertyResolver.INSTANCE, QueryDslPathResolver.INSTANCE, QueryDslQueryFunctionResolver.INSTANCE,
+			QueryDslConstantExpressionResolver.INSTANCE, QueryDslCollectionExpressionResolver.INSTANCE,
+			QueryDslSubqueryResolver.INSTANCE, QueryDslQueryFilterResolver.INSTANCE,
+			QueryDslQuerySortResolver.INSTANCE, QueryDslExistFilterResolver.INSTANCE,
+			QueryDslNotExistFilterResolver.INSTANCE, QueryDslVisitableQueryFilterResolver.INSTANCE,
+			QueryDslVisitableQuerySortResolver.INSTANCE, QueryDslAggregationResolver.INSTANCE,
+			QueryDslConstantExpressionProjectionResolver.INSTANCE, QueryDslTypedExpressionProjectionResolver.INSTANCE,
+			QueryDslDataTargetProjectionResolver.INSTANCE, QueryDslCountAllProjectionResolver.INSTANCE,
+			QueryDslPropertySetProjectionResolver.INSTANCE, QueryDslBeanProjectionResolver.INSTANCE));
+
 	protected final JpaOperationContext operationContext;
 
 	protected final QueryDefinition queryDefinition;
@@ -113,44 +168,57 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 	protected final JPAQueryMixin<JpaQuery<T>> queryMixin;
 	protected final SubQueryExpression<T> subQueryMixin;
 
-	protected FactoryExpression<?> projection;
+	private final JPQLQueryCache queryCache;
+
+	private QueryDslExpressionResolverRegistry expressionResolvers;
+
+	private Object[] seekAfter;
+
+	private Executor fetchResultsExecutor;
+
+	private Executor asyncExecutor;
 
-	@SuppressWarnings("unchecked")
 	public DefaultJpaQuery(JpaOperationContext operationContext) {
+		this(operationContext, JPQLQueryCache.get(operationContext.getEntityManagerFactory()));
+	}
+
+	public DefaultJpaQuery(JpaOperationContext operationContext, JPQLQueryCache queryCache) {
+		this(operationContext, queryCache, QueryDslExpressionResolverRegistry
+				.create(operationContext.getExpressionResolvers()).withExpressionResolvers(DEFAULT_RESOLVERS));
+	}
+
+	/**
+	 * Constructor.
+	 * @param operationContext Operation context (not null)
+	 * @param queryCache JPQL statements cache (not null)
+	 * @param expressionResolvers The expression resolvers to use, including the default ones (not null)
+	 */
+	@SuppressWarnings("unchecked")
+	public DefaultJpaQuery(JpaOperationContext operationContext, JPQLQueryCache queryCache,
+			QueryDslExpressionResolverRegistry expressionResolvers) {
 		super();
 		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		ObjectUtils.argumentNotNull(queryCache, "JPQLQueryCache must be not null");
+		ObjectUtils.argumentNotNull(expressionResolvers, "Expression resolvers registry must be not null");
 
 		this.operationContext = operationContext;
+		this.queryCache = queryCache;
+		this.expressionResolvers = expressionResolvers;
 
 		this.queryDefinition = new DefaultQueryDefinition();
 
 		this.queryMixin = new JPAQueryMixin<>(new DefaultQueryMetadata());
 		this.queryMixin.setSelf(this);
 		this.subQueryMixin = new SubQueryExpressionImpl<>((Class<? extends T>) Object.class, queryMixin.getMetadata());
+	}
 
-		// default resolvers
-		this.queryDefinition.addExpressionResolver(QueryDslTargetEntityPathResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslDataTargetResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslPropertyResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslPathResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslQueryFunctionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslConstantExpressionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslCollectionExpressionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslSubqueryResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslQueryFilterResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslQuerySortResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslExistFilterResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslNotExistFilterResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslVisitableQueryFilterResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslVisitableQuerySortResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslAggregationResolver.INSTANCE);
-
-		this.queryDefinition.addExpressionResolver(QueryDslConstantExpressionProjectionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslTypedExpressionProjectionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslDataTargetProjectionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslCountAllProjectionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslPropertySetProjectionResolver.INSTANCE);
-		this.queryDefinition.addExpressionResolver(QueryDslBeanProjectionResolver.INSTANCE);
+	/**
+	 * Get the default query expression resolvers.
+	 * @return the default expression resolvers
+	 */
+	@SuppressWarnings("rawtypes")
+	public static List<ExpressionResolver> getDefaultExpressionResolvers() {
+		return DEFAULT_RESOLVERS;
 	}
 
 	/*
@@ -172,6 +240,7 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 	public <E extends com.holonplatform.core.Expression, R extends com.holonplatform.core.Expression> JpaQuery<T> withExpressionResolver(
 			ExpressionResolver<E, R> expressionResolver) {
 		queryDefinition.addExpressionResolver(expressionResolver);
+		expressionResolvers = expressionResolvers.withExpressionResolver(expressionResolver);
 		return this;
 	}
 
@@ -892,19 +961,125 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 		return this;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#seekAfter(java.lang.Object[])
+	 */
+	@Override
+	public JpaQuery<T> seekAfter(Object... lastSortKeyValues) {
+		ObjectUtils.argumentNotNull(lastSortKeyValues, "Sort key values must be not null");
+		for (Object value : lastSortKeyValues) {
+			ObjectUtils.argumentNotNull(value, "Sort key values must be not null");
+		}
+		this.seekAfter = Arrays.copyOf(lastSortKeyValues, lastSortKeyValues.length);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setFetchSize(int)
+	 */
+	@Override
+	public JpaQuery<T> setFetchSize(int fetchSize) {
+		queryDefinition.addParameter(QUERY_PARAMETER_FETCH_SIZE.getKey(), fetchSize);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setDedicatedEntityManager(boolean)
+	 */
+	@Override
+	public JpaQuery<T> setDedicatedEntityManager(boolean dedicatedEntityManager) {
+		queryDefinition.addParameter(QUERY_PARAMETER_DEDICATED_ENTITY_MANAGER.getKey(), dedicatedEntityManager);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#cacheable(java.time.Duration)
+	 */
+	@Override
+	public JpaQuery<T> cacheable(Duration ttl) {
+		ObjectUtils.argumentNotNull(ttl, "Time to live must be not null");
+		if (ttl.isZero() || ttl.isNegative()) {
+			throw new IllegalArgumentException("Time to live must be positive");
+		}
+		queryDefinition.addParameter(QUERY_PARAMETER_RESULT_CACHE_TTL.getKey(), ttl);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setReadOnly(boolean)
+	 */
+	@Override
+	public JpaQuery<T> setReadOnly(boolean readOnly) {
+		queryDefinition.addParameter(QUERY_PARAMETER_READ_ONLY.getKey(), readOnly);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setFetchResultsStrategy(com.holonplatform.datastore.jpa.
+	 * querydsl.FetchResultsStrategy)
+	 */
+	@Override
+	public JpaQuery<T> setFetchResultsStrategy(FetchResultsStrategy strategy) {
+		ObjectUtils.argumentNotNull(strategy, "FetchResultsStrategy must be not null");
+		queryDefinition.addParameter(QUERY_PARAMETER_FETCH_RESULTS_STRATEGY.getKey(), strategy);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setFetchResultsExecutor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public JpaQuery<T> setFetchResultsExecutor(Executor executor) {
+		this.fetchResultsExecutor = executor;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#prepare()
+	 */
+	@Override
+	public PreparedJpaQuery<T> prepare() {
+		return operationContext.withEntityManager(entityManager -> {
+			final CompiledJpaQuery compiledQuery = compile(entityManager);
+			// serialize the query statement once
+			compiledQuery.getQueryString(entityManager, false);
+			return new DefaultPreparedJpaQuery<>(operationContext, compiledQuery);
+		});
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.Fetchable#fetch()
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public List<T> fetch() {
 		return operationContext.withEntityManager(entityManager -> {
-			Query query = createQuery(entityManager);
-			return (List<T>) getResultList(query);
+			return fetch(entityManager);
 		});
 	}
 
+	/**
+	 * Execute the query using given EntityManager and get the results list.
+	 * @param entityManager The EntityManager to use
+	 * @return The results list
+	 */
+	@SuppressWarnings("unchecked")
+	List<T> fetch(EntityManager entityManager) {
+		final CompiledJpaQuery compiledQuery = compile(entityManager);
+		final Map<ParamExpression<?>, Object> params = compiledQuery.getMetadata().getParams();
+		final QueryModifiers modifiers = compiledQuery.getMetadata().getModifiers();
+		return (List<T>) getCachedResult(entityManager, compiledQuery, CachedOperation.LIST,
+				() -> compiledQuery.getResultList(entityManager, params, modifiers));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchJoin()
@@ -936,34 +1111,81 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.Fetchable#fetchOne()
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public T fetchOne() {
 		return operationContext.withEntityManager(entityManager -> {
-			try {
-				Query query = createQuery(entityManager, getMetadata().getModifiers(), false);
-				return (T) getSingleResult(query);
-			} catch (@SuppressWarnings("unused") javax.persistence.NoResultException e) {
-				return null;
-			} catch (@SuppressWarnings("unused") javax.persistence.NonUniqueResultException e) {
-				throw new NonUniqueResultException();
-			}
+			return fetchOne(entityManager);
 		});
 	}
 
+	/**
+	 * Execute the query using given EntityManager and get a unique result.
+	 * @param entityManager The EntityManager to use
+	 * @return The unique result, <code>null</code> if none
+	 * @throws NonUniqueResultException If more than one result is available
+	 */
+	T fetchOne(EntityManager entityManager) {
+		final CompiledJpaQuery compiledQuery = compile(entityManager);
+		return getCachedResult(entityManager, compiledQuery, CachedOperation.UNIQUE,
+				() -> fetchOne(entityManager, compiledQuery));
+	}
+
+	/**
+	 * Execute given compiled query and get a unique result.
+	 * @param entityManager The EntityManager to use
+	 * @param compiledQuery The compiled query
+	 * @return The unique result, <code>null</code> if none
+	 * @throws NonUniqueResultException If more than one result is available
+	 */
+	@SuppressWarnings("unchecked")
+	private T fetchOne(EntityManager entityManager, CompiledJpaQuery compiledQuery) {
+		try {
+			return (T) compiledQuery.getSingleResult(entityManager, compiledQuery.getMetadata().getParams(),
+					compiledQuery.getMetadata().getModifiers());
+		} catch (@SuppressWarnings("unused") javax.persistence.NoResultException e) {
+			return null;
+		} catch (@SuppressWarnings("unused") javax.persistence.NonUniqueResultException e) {
+			throw new NonUniqueResultException();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.Fetchable#iterate()
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public CloseableIterator<T> iterate() {
+		if (queryDefinition.getParameter(QUERY_PARAMETER_DEDICATED_ENTITY_MANAGER).orElse(Boolean.FALSE)) {
+			// the dedicated EntityManager is closed with the iterator
+			final EntityManager entityManager = operationContext.getEntityManagerFactory().createEntityManager();
+			final CompiledJpaQuery compiledQuery;
+			try {
+				compiledQuery = compile(entityManager);
+			} catch (RuntimeException e) {
+				entityManager.close();
+				throw e;
+			}
+			return (CloseableIterator<T>) compiledQuery.iterate(entityManager,
+					compiledQuery.getMetadata().getParams(), compiledQuery.getMetadata().getModifiers(),
+					entityManager::close);
+		}
 		return operationContext.withEntityManager(entityManager -> {
-			final JPQLTemplates templates = JPAProvider.getTemplates(entityManager);
-			Query query = createQuery(templates, entityManager);
-			return templates.getQueryHandler().iterate(query, projection);
+			final CompiledJpaQuery compiledQuery = compile(entityManager);
+			return (CloseableIterator<T>) compiledQuery.iterate(entityManager,
+					compiledQuery.getMetadata().getParams(), compiledQuery.getMetadata().getModifiers());
 		});
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#stream()
+	 */
+	@Override
+	public Stream<T> stream() {
+		return CompiledJpaQuery.stream(iterate());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.Fetchable#fetchResults()
@@ -971,66 +1193,400 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 	@Override
 	public QueryResults<T> fetchResults() {
 		return operationContext.withEntityManager(entityManager -> {
-			Query countQuery = createQuery(entityManager, null, true);
-			long total = (Long) countQuery.getSingleResult();
-			if (total > 0) {
-				QueryModifiers modifiers = getMetadata().getModifiers();
-				Query query = createQuery(entityManager, modifiers, false);
-				@SuppressWarnings("unchecked")
-				List<T> list = (List<T>) getResultList(query);
-				return new QueryResults<>(list, modifiers, total);
-			} else {
-				return QueryResults.emptyResults();
-			}
+			return fetchResults(entityManager);
 		});
 	}
 
+	/**
+	 * Execute the query using given EntityManager and get the results page along with the total results count.
+	 * @param entityManager The EntityManager to use
+	 * @return The query results
+	 */
+	QueryResults<T> fetchResults(EntityManager entityManager) {
+		// the same compiled query is used for both count and results
+		return fetchResults(entityManager, compile(entityManager), getFetchResultsStrategy());
+	}
+
+	/**
+	 * Get the {@link FetchResultsStrategy} to use.
+	 * @return The fetch results strategy
+	 */
+	private FetchResultsStrategy getFetchResultsStrategy() {
+		return queryDefinition.getParameter(QUERY_PARAMETER_FETCH_RESULTS_STRATEGY)
+				.orElse(FetchResultsStrategy.SEQUENTIAL);
+	}
+
+	/**
+	 * Execute given compiled query and get the results page along with the total results count.
+	 * @param entityManager The EntityManager to use
+	 * @param compiledQuery The compiled query
+	 * @param strategy The fetch results strategy
+	 * @return The query results
+	 */
+	@SuppressWarnings("unchecked")
+	private QueryResults<T> fetchResults(EntityManager entityManager, CompiledJpaQuery compiledQuery,
+			FetchResultsStrategy strategy) {
+		return (QueryResults<T>) FetchResultsSupport.get(operationContext.getEntityManagerFactory()).fetchResults(
+				operationContext, entityManager, compiledQuery, compiledQuery.getMetadata().getParams(),
+				compiledQuery.getMetadata().getModifiers(), strategy, fetchResultsExecutor);
+	}
+
 	/*
 	 * (non-Javadoc)
-	 * @see com.querydsl.core.Fetchable#fetchCount()
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#partitionBy(com.querydsl.core.types.dsl.NumberPath, int)
 	 */
 	@Override
-	public long fetchCount() {
+	public PartitionedJpaQuery<T> partitionBy(NumberPath<?> key, int partitions) {
+		final QueryModifiers modifiers = getMetadata().getModifiers();
+		if (modifiers != null && (modifiers.getLimit() != null || modifiers.getOffset() != null)) {
+			throw new IllegalStateException("A query with limit or offset cannot be partitioned");
+		}
+		final BiFunction<EntityManager, UnaryOperator<QueryMetadata>, CompiledJpaQuery> compiler = (entityManager,
+				transformer) -> compile(JPAProvider.getTemplates(entityManager), seekAfter, transformer);
+		return new DefaultPartitionedJpaQuery<>(operationContext, compiler, key, partitions, asyncExecutor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#setAsyncExecutor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public JpaQuery<T> setAsyncExecutor(Executor executor) {
+		this.asyncExecutor = executor;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchAsync()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public CompletableFuture<List<T>> fetchAsync() {
+		return supplyAsync((entityManager, compiledQuery) -> (List<T>) compiledQuery.getResultList(entityManager,
+				compiledQuery.getMetadata().getParams(), compiledQuery.getMetadata().getModifiers()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchOneAsync()
+	 */
+	@Override
+	public CompletableFuture<T> fetchOneAsync() {
+		return supplyAsync(this::fetchOne);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchCountAsync()
+	 */
+	@Override
+	public CompletableFuture<Long> fetchCountAsync() {
+		return supplyAsync((entityManager, compiledQuery) -> compiledQuery.getCount(entityManager,
+				compiledQuery.getMetadata().getParams()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchResultsAsync()
+	 */
+	@Override
+	public CompletableFuture<QueryResults<T>> fetchResultsAsync() {
+		final FetchResultsStrategy strategy = getFetchResultsStrategy();
+		return supplyAsync((entityManager, compiledQuery) -> fetchResults(entityManager, compiledQuery, strategy));
+	}
+
+	/**
+	 * Compile this query and execute given operation asynchronously, using the configured executor. The operation is
+	 * executed through the operation context in the executor thread, so it uses the {@link EntityManager} the
+	 * datastore provides to that thread.
+	 * @param <R> Operation result type
+	 * @param operation The operation to execute
+	 * @return The operation result future
+	 */
+	private <R> CompletableFuture<R> supplyAsync(BiFunction<EntityManager, CompiledJpaQuery, R> operation) {
+		// the query is compiled in the calling thread, so that subsequent changes to this query are not visible
+		final CompiledJpaQuery compiledQuery;
+		try {
+			compiledQuery = operationContext.withEntityManager(entityManager -> {
+				return compile(entityManager);
+			});
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return CompletableFuture.supplyAsync(() -> operationContext.withEntityManager(entityManager -> {
+			return operation.apply(entityManager, compiledQuery);
+		}), (asyncExecutor != null) ? asyncExecutor : QueryExecutors.getDefaultExecutor());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchLongs()
+	 */
+	@Override
+	public long[] fetchLongs() {
+		return fetchNumbers(NumericResults::toLongs);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchInts()
+	 */
+	@Override
+	public int[] fetchInts() {
+		return fetchNumbers(NumericResults::toInts);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchDoubles()
+	 */
+	@Override
+	public double[] fetchDoubles() {
+		return fetchNumbers(NumericResults::toDoubles);
+	}
+
+	/**
+	 * Execute the query and collect the results using given collector, reading the results through a cursor.
+	 * @param <R> Collected results type
+	 * @param collector The results collector, which is provided with the results iterator and the expected results
+	 *        count, or <code>-1</code> if not known
+	 * @return The collected results
+	 */
+	private <R> R fetchNumbers(BiFunction<Iterator<?>, Long, R> collector) {
 		return operationContext.withEntityManager(entityManager -> {
-			Query query = createQuery(entityManager, null, true);
-			return (Long) query.getSingleResult();
+			final CompiledJpaQuery compiledQuery = compile(entityManager);
+			final QueryModifiers modifiers = compiledQuery.getMetadata().getModifiers();
+			final Long limit = (modifiers != null) ? modifiers.getLimit() : null;
+			try (CloseableIterator<?> iterator = compiledQuery.iterate(entityManager,
+					compiledQuery.getMetadata().getParams(), modifiers, null)) {
+				return collector.apply(iterator, (limit != null) ? limit : -1L);
+			}
 		});
 	}
 
-	private Object getSingleResult(Query query) {
-		if (projection != null) {
-			Object result = query.getSingleResult();
-			if (result != null) {
-				if (!result.getClass().isArray()) {
-					result = new Object[] { result };
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#forEachChunk(int, java.util.function.Consumer)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public long forEachChunk(int chunkSize, Consumer<? super List<T>> chunkConsumer) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be greater than 0");
+		}
+		ObjectUtils.argumentNotNull(chunkConsumer, "Chunk consumer must be not null");
+		return operationContext.withEntityManager(entityManager -> {
+			final JPQLTemplates templates = JPAProvider.getTemplates(entityManager);
+			final Metamodel metamodel = entityManager.getMetamodel();
+			// the root entity identifier is appended to the sort, so that the chunks order is deterministic
+			final CompiledJpaQuery baseQuery = compile(templates, seekAfter,
+					metadata -> KeysetExtractor.appendIdentifierOrder(metadata, metamodel));
+			final QueryModifiers modifiers = baseQuery.getMetadata().getModifiers();
+			final Long limit = (modifiers != null) ? modifiers.getLimit() : null;
+			final long offset = (modifiers != null && modifiers.getOffset() != null) ? modifiers.getOffset() : 0L;
+			// keyset pagination is used when the sort key values can be obtained from the result rows
+			final KeysetExtractor keyset = KeysetExtractor.create(baseQuery.getMetadata(), metamodel);
+
+			CompiledJpaQuery chunkQuery = baseQuery;
+			boolean seek = false;
+			long processed = 0;
+			while (limit == null || processed < limit) {
+				final long size = (limit == null) ? chunkSize : Math.min(chunkSize, limit - processed);
+				final QueryModifiers chunkModifiers = new QueryModifiers(size, seek ? 0L : offset + processed);
+				final List<?> rows = chunkQuery.getRows(entityManager, chunkQuery.getMetadata().getParams(),
+						chunkModifiers);
+				if (rows.isEmpty()) {
+					break;
+				}
+				final Object[] lastKey = (keyset != null) ? keyset.extract(rows.get(rows.size() - 1)) : null;
+				chunkConsumer.accept((List<T>) chunkQuery.transform(rows));
+				processed += rows.size();
+
+				// release the chunk entities
+				if (entityManager.isJoinedToTransaction()) {
+					entityManager.flush();
+				}
+				entityManager.clear();
+				operationContext.traceOperation("Processed chunk of [" + rows.size() + "] rows, total [" + processed
+						+ "] rows" + ((lastKey != null) ? " - next chunk seek after " + Arrays.toString(lastKey) : ""));
+
+				if (rows.size() < size) {
+					break;
+				}
+				if (lastKey != null) {
+					// the next chunk starts after the last row sort key values, the initial offset is already applied
+					chunkQuery = compile(templates, seekAfter, metadata -> {
+						KeysetExtractor.appendIdentifierOrder(metadata, metamodel);
+						metadata.addWhere(getKeysetPredicate(metadata.getOrderBy(), lastKey));
+						return metadata;
+					});
+					seek = true;
+				} else if (seek) {
+					// fall back to offset pagination from the base query
+					seek = false;
+					chunkQuery = baseQuery;
 				}
-				return projection.newInstance((Object[]) result);
-			} else {
-				return null;
 			}
-		} else {
-			return query.getSingleResult();
+			return processed;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchColumnar(int, java.util.function.Consumer)
+	 */
+	@Override
+	public void fetchColumnar(int batchSize, Consumer<ColumnBatch> consumer) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be greater than 0");
 		}
+		ObjectUtils.argumentNotNull(consumer, "Batch consumer must be not null");
+		fetchColumnar(batchSize, false, consumer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchColumnar()
+	 */
+	@Override
+	public ColumnBatch fetchColumnar() {
+		final List<ColumnBatch> batches = new ArrayList<>(1);
+		fetchColumnar(0, true, batches::add);
+		return batches.get(0);
 	}
 
-	private List<?> getResultList(Query query) {
-		if (projection != null) {
-			List<?> results = query.getResultList();
-			List<Object> rv = new ArrayList<>(results.size());
-			for (Object o : results) {
-				if (o != null) {
-					if (!o.getClass().isArray()) {
-						o = new Object[] { o };
+	/**
+	 * Execute the query and collect the result rows into {@link ColumnBatch}es.
+	 * @param batchSize Batch size, or initial capacity if <code>growable</code>
+	 * @param growable Whether to collect all the results into a single batch
+	 * @param consumer Batches consumer
+	 */
+	private void fetchColumnar(int batchSize, boolean growable, Consumer<ColumnBatch> consumer) {
+		operationContext.withEntityManager(entityManager -> {
+			final CompiledJpaQuery compiledQuery = compile(entityManager);
+			final QueryMetadata metadata = compiledQuery.getMetadata();
+			final Expression<?> projection = (metadata.getProjection() != null) ? metadata.getProjection()
+					: metadata.getJoins().get(0).getTarget();
+			// nested factory expressions are serialized as flat columns
+			final ColumnBatchBuilder builder = new ColumnBatchBuilder((projection instanceof FactoryExpression)
+					? FactoryExpressionUtils.wrap((FactoryExpression<?>) projection).getArgs()
+					: Collections.singletonList(projection), batchSize, growable);
+			try (CloseableIterator<?> rows = compiledQuery.iterateRows(entityManager, metadata.getParams(),
+					metadata.getModifiers())) {
+				while (rows.hasNext()) {
+					builder.add(rows.next());
+					if (builder.isFull()) {
+						consumer.accept(builder.build());
 					}
-					rv.add(projection.newInstance((Object[]) o));
-				} else {
-					rv.add(null);
 				}
 			}
-			return rv;
-		} else {
-			return query.getResultList();
+			if (growable || !builder.isEmpty()) {
+				consumer.accept(builder.build());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchExists()
+	 */
+	@Override
+	public boolean fetchExists() {
+		return operationContext.withEntityManager(entityManager -> {
+			final CompiledJpaQuery compiledQuery = compile(entityManager);
+			return compiledQuery.exists(entityManager, compiledQuery.getMetadata().getParams());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaQuery#fetchExists(com.querydsl.core.types.Expression,
+	 * java.util.List)
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public <K> BitSet fetchExists(Expression<K> key, List<? extends K> values) {
+		ObjectUtils.argumentNotNull(key, "Key expression must be not null");
+		ObjectUtils.argumentNotNull(values, "Key values must be not null");
+		final BitSet exists = new BitSet(values.size());
+		final List<Object> keyValues = values.stream().filter(Objects::nonNull).distinct()
+				.collect(Collectors.<Object> toList());
+		if (keyValues.isEmpty()) {
+			return exists;
 		}
+		final Param<Collection> keysParameter = new Param<>(Collection.class, EXISTS_KEYS_PARAMETER);
+		final Set<Object> matching = operationContext.withEntityManager(entityManager -> {
+			// select the distinct matching key values, binding the key values chunks to the same statement
+			final CompiledJpaQuery compiledQuery = compile(JPAProvider.getTemplates(entityManager), seekAfter, metadata -> {
+				final QueryMetadata distinctValues = CountQueryOptimizer.distinctValues(metadata, key);
+				distinctValues.addWhere(ExpressionUtils.predicate(Ops.IN, key, keysParameter));
+				return distinctValues;
+			});
+			final Map<ParamExpression<?>, Object> params = new HashMap<>(compiledQuery.getMetadata().getParams());
+			final Set<Object> found = new HashSet<>();
+			for (int i = 0; i < keyValues.size(); i += EXISTS_BATCH_SIZE) {
+				params.put(keysParameter, keyValues.subList(i, Math.min(i + EXISTS_BATCH_SIZE, keyValues.size())));
+				found.addAll(compiledQuery.getResultList(entityManager, params, null));
+			}
+			return found;
+		});
+		for (int i = 0; i < values.size(); i++) {
+			final Object value = values.get(i);
+			if (value != null && matching.contains(value)) {
+				exists.set(i);
+			}
+		}
+		return exists;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetchCount()
+	 */
+	@Override
+	public long fetchCount() {
+		return operationContext.withEntityManager(entityManager -> {
+			return fetchCount(entityManager);
+		});
+	}
+
+	/**
+	 * Execute the count query using given EntityManager.
+	 * @param entityManager The EntityManager to use
+	 * @return The results count
+	 */
+	long fetchCount(EntityManager entityManager) {
+		final CompiledJpaQuery compiledQuery = compile(entityManager);
+		return getCachedResult(entityManager, compiledQuery, CachedOperation.COUNT,
+				() -> Long.valueOf(compiledQuery.getCount(entityManager, compiledQuery.getMetadata().getParams())));
+	}
+
+	/**
+	 * Execute given query operation, using the result cache if this query is cacheable.
+	 * @param <R> Result type
+	 * @param entityManager The EntityManager to use
+	 * @param compiledQuery The compiled query
+	 * @param operation The operation type
+	 * @param executor The operation executor
+	 * @return The operation result
+	 */
+	private <R> R getCachedResult(EntityManager entityManager, CompiledJpaQuery compiledQuery,
+			CachedOperation operation, Supplier<R> executor) {
+		final Duration ttl = queryDefinition.getParameter(QUERY_PARAMETER_RESULT_CACHE_TTL).orElse(null);
+		// queries with a lock mode are never cached
+		if (ttl == null || queryDefinition.getParameter(JpaDatastore.QUERY_PARAMETER_LOCK_MODE).isPresent()) {
+			return executor.get();
+		}
+		// entities are managed by the persistence context of the EntityManager which loaded them
+		if (operation != CachedOperation.COUNT && compiledQuery.isEntityProjection()) {
+			return executor.get();
+		}
+		final Object key = compiledQuery.getResultKey(entityManager, operation,
+				compiledQuery.getMetadata().getParams(), compiledQuery.getMetadata().getModifiers());
+		return QueryResultCache.get(operationContext.getEntityManagerFactory()).get(key,
+				compiledQuery.getReferencedTypes(), ttl, executor);
 	}
 
 	protected Query createQuery(EntityManager entityManager) {
@@ -1047,55 +1603,10 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 
 	protected Query createQuery(JPQLTemplates jpqlTemplates, EntityManager entityManager, QueryModifiers modifiers,
 			boolean forCount) {
-
-		// configure query
-		final QueryDslResolutionContext context = QueryDslResolutionContext.create(operationContext, getMetadata());
-		context.addExpressionResolvers(getQueryConfiguration().getExpressionResolvers());
-
-		configureQuery(this, getQueryConfiguration(), context);
-
 		final JPQLTemplates templates = (jpqlTemplates != null) ? jpqlTemplates
 				: JPAProvider.getTemplates(entityManager);
-
-		// serialize query
-		JPQLSerializer serializer = serialize(templates, entityManager, forCount);
-		final String queryString = serializer.toString();
-
-		// trace
-		operationContext.trace(queryString.replace('\n', ' '));
-
-		final Query query = entityManager.createQuery(queryString);
-		JPAUtil.setConstants(query, serializer.getConstants(), getMetadata().getParams());
-
-		// check restrictions
-		if (modifiers != null && modifiers.isRestricting()) {
-			Integer limit = modifiers.getLimitAsInteger();
-			Integer offset = modifiers.getOffsetAsInteger();
-			if (limit != null) {
-				query.setMaxResults(limit);
-			}
-			if (offset != null) {
-				query.setFirstResult(offset);
-			}
-		}
-
-		// check configuration
-		queryDefinition.getParameter(JpaQueryHint.QUERY_PARAMETER_HINT)
-				.ifPresent(p -> query.setHint(p.getName(), p.getValue()));
-		queryDefinition.getParameter(JpaDatastore.QUERY_PARAMETER_LOCK_MODE).ifPresent(p -> query.setLockMode(p));
-		queryDefinition.getParameter(JpaDatastore.QUERY_PARAMETER_FLUSH_MODE).ifPresent(p -> query.setFlushMode(p));
-
-		// set transformer, if necessary and possible
-		Expression<?> projection = getMetadata().getProjection();
-		this.projection = null; // necessary when query is reused
-
-		if (!forCount && projection instanceof FactoryExpression) {
-			if (!templates.getQueryHandler().transform(query, (FactoryExpression<?>) projection)) {
-				this.projection = (FactoryExpression<?>) projection;
-			}
-		}
-
-		return query;
+		final CompiledJpaQuery compiledQuery = compile(templates);
+		return compiledQuery.createQuery(entityManager, compiledQuery.getMetadata().getParams(), modifiers, forCount);
 	}
 
 	protected JPQLSerializer createSerializer(JPQLTemplates templates, EntityManager entityManager) {
@@ -1113,11 +1624,117 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 				throw new IllegalArgumentException("No sources given");
 			}
 		}
+		return serialize(queryMixin.getMetadata(), templates, entityManager, forCountRow);
+	}
+
+	protected JPQLSerializer serialize(QueryMetadata metadata, JPQLTemplates templates, EntityManager entityManager,
+			boolean forCountRow) {
 		JPQLSerializer serializer = createSerializer(templates, entityManager);
-		serializer.serialize(queryMixin.getMetadata(), forCountRow, null);
+		serializer.serialize(metadata, forCountRow, null);
 		return serializer;
 	}
 
+	/**
+	 * Compile this query using the JPQL templates of given EntityManager.
+	 * @param entityManager EntityManager
+	 * @return The compiled query
+	 * @see #compile(JPQLTemplates)
+	 */
+	protected CompiledJpaQuery compile(EntityManager entityManager) {
+		return compile(JPAProvider.getTemplates(entityManager));
+	}
+
+	/**
+	 * Compile this query: the query configuration is applied to a copy of the current query metadata, which is left
+	 * unchanged.
+	 * @param templates JPQL templates to use
+	 * @return The compiled query
+	 */
+	protected CompiledJpaQuery compile(JPQLTemplates templates) {
+		return compile(templates, seekAfter, null);
+	}
+
+	/**
+	 * Compile this query, using given function to obtain the metadata to compile from the configured query metadata.
+	 * @param templates JPQL templates to use
+	 * @param seekAfterValues Optional keyset pagination sort key values
+	 * @param transformer Optional function to transform the configured query metadata
+	 * @return The compiled query
+	 */
+	private CompiledJpaQuery compile(JPQLTemplates templates, Object[] seekAfterValues,
+			UnaryOperator<QueryMetadata> transformer) {
+		final QueryMetadata metadata = getMetadata().clone();
+
+		// configure query
+		final QueryDslResolutionContext context = QueryDslResolutionContext.create(operationContext, metadata,
+				expressionResolvers);
+
+		final QueryMixin<?> mixin = new JPAQueryMixin<>(metadata);
+		configureQuery(mixin, getQueryConfiguration(), context);
+
+		// keyset pagination
+		if (seekAfterValues != null) {
+			mixin.where(getKeysetPredicate(metadata.getOrderBy(), seekAfterValues));
+		}
+
+		return new CompiledJpaQuery(operationContext, (transformer != null) ? transformer.apply(metadata) : metadata,
+				templates, queryCache, this::createSerializer,
+				queryDefinition.getParameter(JpaQueryHint.QUERY_PARAMETER_HINT).orElse(null),
+				queryDefinition.getParameter(JpaDatastore.QUERY_PARAMETER_LOCK_MODE).orElse(null),
+				queryDefinition.getParameter(JpaDatastore.QUERY_PARAMETER_FLUSH_MODE).orElse(null),
+				queryDefinition.getParameter(QUERY_PARAMETER_FETCH_SIZE).orElse(null),
+				queryDefinition.getParameter(QUERY_PARAMETER_READ_ONLY).orElse(DEFAULT_READ_ONLY),
+				queryDefinition.getParameter(QUERY_PARAMETER_DEDICATED_ENTITY_MANAGER).orElse(Boolean.FALSE));
+	}
+
+	/**
+	 * Get the cache of the serialized JPQL statements used by this query.
+	 * @return the JPQL cache
+	 */
+	protected JPQLQueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * Build the keyset pagination predicate which selects the rows following the row with given sort key values.
+	 * <p>
+	 * For the sort specifiers <code>(k1, k2, ... kn)</code> the predicate is expressed as
+	 * <code>(k1 &gt; v1) or (k1 = v1 and k2 &gt; v2) or ... or (k1 = v1 and ... and kn &gt; vn)</code>, using the
+	 * <code>&lt;</code> operator for descending sort specifiers. A redundant range condition on the first sort key is
+	 * added to allow index range scans.
+	 * </p>
+	 * @param orderBy Sort specifiers
+	 * @param values Sort key values
+	 * @return The keyset predicate
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Predicate getKeysetPredicate(List<OrderSpecifier<?>> orderBy, Object[] values) {
+		if (orderBy == null || orderBy.isEmpty()) {
+			throw new IllegalStateException("Keyset pagination requires at least one query sort specifier");
+		}
+		if (orderBy.size() != values.length) {
+			throw new IllegalArgumentException("Keyset pagination sort key values count [" + values.length
+					+ "] does not match the query sort specifiers count [" + orderBy.size() + "]");
+		}
+		Predicate keyset = null;
+		Predicate equalities = null;
+		for (int i = 0; i < values.length; i++) {
+			final OrderSpecifier<?> order = orderBy.get(i);
+			final Expression target = order.getTarget();
+			final Expression value = ConstantImpl.create(values[i]);
+			final Predicate following = ExpressionUtils.predicate(order.isAscending() ? Ops.GT : Ops.LT, target,
+					value);
+			keyset = ExpressionUtils.or(keyset, ExpressionUtils.and(equalities, following));
+			equalities = ExpressionUtils.and(equalities, ExpressionUtils.eq(target, value));
+		}
+		if (values.length > 1) {
+			final OrderSpecifier<?> first = orderBy.get(0);
+			keyset = ExpressionUtils.and(ExpressionUtils.predicate(first.isAscending() ? Ops.GOE : Ops.LOE,
+					first.getTarget(), ConstantImpl.create(values[0])), keyset);
+		}
+		return keyset;
+	}
+
 	/**
 	 * Configure JPA query using query definition
 	 * @param query JPA query to configure
@@ -1126,8 +1743,28 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 	 */
 	public static void configureQuery(JPQLQuery<?> query, QueryConfiguration configuration,
 			QueryDslResolutionContext context) {
+		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		configureQuery(configuration, context, p -> query.where(p), o -> query.orderBy(o), g -> query.groupBy(g),
+				h -> query.having(h));
+	}
 
+	/**
+	 * Configure query metadata using query definition
+	 * @param query Query mixin which holds the query metadata to configure
+	 * @param configuration Query configuration
+	 * @param context Resolution context
+	 */
+	public static void configureQuery(QueryMixin<?> query, QueryConfiguration configuration,
+			QueryDslResolutionContext context) {
 		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		configureQuery(configuration, context, p -> query.where(p), o -> query.orderBy(o), g -> query.groupBy(g),
+				h -> query.having(h));
+	}
+
+	private static void configureQuery(QueryConfiguration configuration, QueryDslResolutionContext context,
+			Consumer<Predicate> where, Consumer<OrderSpecifier<?>[]> orderBy, Consumer<Expression<?>[]> groupBy,
+			Consumer<Predicate> having) {
+
 		ObjectUtils.argumentNotNull(configuration, "QueryConfiguration must be not null");
 
 		// filter
@@ -1135,7 +1772,7 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 			PredicateExpression predicate = context.resolve(f, PredicateExpression.class, context)
 					.orElseThrow(() -> new InvalidExpressionException("Failed to resolve filter [" + f + "]"));
 			predicate.validate();
-			query.where(predicate.getPredicate());
+			where.accept(predicate.getPredicate());
 		});
 
 		// sort
@@ -1143,7 +1780,7 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 			OrderSpecifierExpression sort = context.resolve(s, OrderSpecifierExpression.class, context)
 					.orElseThrow(() -> new InvalidExpressionException("Failed to resolve sort [" + s + "]"));
 			sort.validate();
-			query.orderBy(sort.getOrderSpecifiers().toArray(new OrderSpecifier[0]));
+			orderBy.accept(sort.getOrderSpecifiers().toArray(new OrderSpecifier[0]));
 		});
 
 		// aggregation
@@ -1152,9 +1789,9 @@ public class DefaultJpaQuery<T> implements JpaQuery<T> {
 					.orElseThrow(() -> new InvalidExpressionException("Failed to resolve aggregation [" + a + "]"));
 			aggregation.validate();
 			// group by
-			query.groupBy(aggregation.getGroupBys().toArray(new Expression[0]));
+			groupBy.accept(aggregation.getGroupBys().toArray(new Expression[0]));
 			// having
-			aggregation.getHaving().ifPresent(h -> query.having(h));
+			aggregation.getHaving().ifPresent(h -> having.accept(h));
 		});
 	}
 
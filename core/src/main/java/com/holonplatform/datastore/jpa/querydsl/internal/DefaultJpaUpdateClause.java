@@ -15,9 +15,13 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.internal;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import javax.persistence.Query;
 
@@ -25,11 +29,14 @@ import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.holonplatform.datastore.jpa.context.JpaOperationContext;
 import com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause;
 import com.querydsl.core.JoinType;
+import com.querydsl.core.QueryMetadata;
 import com.querydsl.core.support.QueryMixin;
 import com.querydsl.core.types.EntityPath;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.CaseBuilder;
 import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.jpa.JPAQueryMixin;
 import com.querydsl.jpa.JPQLSerializer;
@@ -48,6 +55,10 @@ public class DefaultJpaUpdateClause implements JpaUpdateClause {
 
 	private final Map<Path<?>, Expression<?>> updates = new LinkedHashMap<>();
 
+	private final DmlBatch batch = new DmlBatch();
+
+	private MapUpdate<?, ?> mapUpdate;
+
 	public DefaultJpaUpdateClause(JpaOperationContext operationContext, EntityPath<?> entity) {
 		super();
 		ObjectUtils.argumentNotNull(entity, "Entity to update must be not null");
@@ -109,6 +120,35 @@ public class DefaultJpaUpdateClause implements JpaUpdateClause {
 		return this;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause#setFromMap(com.querydsl.core.types.Path,
+	 * com.querydsl.core.types.Path, java.util.Map, int)
+	 */
+	@Override
+	public <K, T> JpaUpdateClause setFromMap(Path<T> target, Path<K> key, Map<K, T> values, int chunkSize) {
+		ObjectUtils.argumentNotNull(target, "Target path must be not null");
+		ObjectUtils.argumentNotNull(key, "Key path must be not null");
+		ObjectUtils.argumentNotNull(values, "Values map must be not null");
+		if (values.isEmpty()) {
+			// an empty map update would produce no statement, discarding any other set expression
+			throw new IllegalArgumentException("Values map must be not empty");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be greater than 0");
+		}
+		for (K value : values.keySet()) {
+			if (value == null) {
+				throw new IllegalArgumentException("Values map keys must be not null");
+			}
+		}
+		if (mapUpdate != null) {
+			throw new IllegalStateException("A map update is already configured for this clause");
+		}
+		mapUpdate = new MapUpdate<>(target, key, values, chunkSize);
+		return this;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.querydsl.core.FilteredClause#where(com.querydsl.core.types.Predicate[])
@@ -127,7 +167,43 @@ public class DefaultJpaUpdateClause implements JpaUpdateClause {
 	 */
 	@Override
 	public boolean isEmpty() {
-		return updates.isEmpty();
+		return updates.isEmpty() && mapUpdate == null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause#addBatch()
+	 */
+	@Override
+	public JpaUpdateClause addBatch() {
+		if (mapUpdate != null) {
+			mapUpdate.addStatements(batch, queryMixin.getMetadata(), updates);
+		} else {
+			batch.add(queryMixin.getMetadata().clone(), updates);
+		}
+		// reset the clause state
+		queryMixin.getMetadata().clearWhere();
+		updates.clear();
+		mapUpdate = null;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause#getBatchCount()
+	 */
+	@Override
+	public int getBatchCount() {
+		return batch.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause#executeBatch()
+	 */
+	@Override
+	public long[] executeBatch() {
+		return batch.execute(operationContext, queryMixin.getMetadata().getJoins().get(0).getTarget().getType());
 	}
 
 	/*
@@ -136,6 +212,16 @@ public class DefaultJpaUpdateClause implements JpaUpdateClause {
 	 */
 	@Override
 	public long execute() {
+		if (batch.size() > 0) {
+			return LongStream.of(executeBatch()).sum();
+		}
+		if (mapUpdate != null) {
+			// a statement for each chunk of the map entries
+			final DmlBatch statements = new DmlBatch();
+			mapUpdate.addStatements(statements, queryMixin.getMetadata(), updates);
+			return LongStream.of(statements.execute(operationContext,
+					queryMixin.getMetadata().getJoins().get(0).getTarget().getType())).sum();
+		}
 		return operationContext.withEntityManager(entityManager -> {
 
 			JPQLSerializer serializer = new JPQLSerializer(JPAProvider.getTemplates(entityManager), entityManager);
@@ -149,9 +235,70 @@ public class DefaultJpaUpdateClause implements JpaUpdateClause {
 			Query query = entityManager.createQuery(queryString);
 
 			JPAUtil.setConstants(query, constants, queryMixin.getMetadata().getParams());
-			return Long.valueOf(query.executeUpdate());
+
+			// invalidate the cached query results which refer to the entity
+			return QueryResultCache.get(operationContext.getEntityManagerFactory()).update(entityManager,
+					queryMixin.getMetadata().getJoins().get(0).getTarget().getType(),
+					() -> Long.valueOf(query.executeUpdate()));
 
 		});
 	}
 
+	/**
+	 * An update of a path value from a key-to-value map.
+	 * @param <K> Key type
+	 * @param <T> Target path type
+	 */
+	private static final class MapUpdate<K, T> {
+
+		private final Path<T> target;
+		private final Path<K> key;
+		private final List<Entry<K, T>> values;
+		private final int chunkSize;
+
+		MapUpdate(Path<T> target, Path<K> key, Map<K, T> values, int chunkSize) {
+			super();
+			this.target = target;
+			this.key = key;
+			this.values = new ArrayList<>(new LinkedHashMap<>(values).entrySet());
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Add an update statement to given batch for each chunk of the map entries.
+		 * @param batch The batch
+		 * @param metadata The clause metadata
+		 * @param updates The other clause <em>set</em> expressions
+		 */
+		void addStatements(DmlBatch batch, QueryMetadata metadata, Map<Path<?>, Expression<?>> updates) {
+			for (int i = 0; i < values.size(); i += chunkSize) {
+				final List<Entry<K, T>> chunk = values.subList(i, Math.min(i + chunkSize, values.size()));
+				final Map<Path<?>, Expression<?>> statementUpdates = new LinkedHashMap<>(updates);
+				statementUpdates.put(target, getCaseExpression(chunk));
+				final List<K> keys = chunk.stream().map(Entry::getKey).collect(Collectors.toList());
+				final QueryMetadata statementMetadata = metadata.clone();
+				statementMetadata.addWhere(ExpressionUtils.in(key, keys));
+				batch.add(statementMetadata, statementUpdates);
+			}
+		}
+
+		/**
+		 * Build the <code>CASE</code> expression which maps each chunk key to its value, keeping the current value
+		 * otherwise.
+		 * @param chunk The chunk entries
+		 * @return The <code>CASE</code> expression
+		 */
+		private Expression<T> getCaseExpression(List<Entry<K, T>> chunk) {
+			CaseBuilder.Cases<T, ? extends Expression<T>> cases = null;
+			for (Entry<K, T> entry : chunk) {
+				final Predicate when = ExpressionUtils.eq(key, Expressions.constant(entry.getKey()));
+				final Expression<T> then = (entry.getValue() != null) ? Expressions.constant(entry.getValue())
+						: Expressions.nullExpression(target);
+				cases = (cases == null) ? new CaseBuilder().when(when).then(then) : cases.when(when).then(then);
+			}
+			return cases.otherwise(target);
+		}
+
+	}
+
 }
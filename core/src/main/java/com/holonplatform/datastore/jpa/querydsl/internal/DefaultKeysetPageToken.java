@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.holonplatform.datastore.jpa.querydsl.KeysetPageToken;
+
+/**
+ * Default {@link KeysetPageToken} implementation.
+ *
+ * @since 5.7.1
+ */
+public class DefaultKeysetPageToken implements KeysetPageToken {
+
+	private static final long serialVersionUID = -2868385386227358412L;
+
+	private final Object[] values;
+
+	public DefaultKeysetPageToken(Object[] values) {
+		super();
+		this.values = Arrays.copyOf(values, values.length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.KeysetPageToken#getValues()
+	 */
+	@Override
+	public List<Object> getValues() {
+		return Collections.unmodifiableList(Arrays.asList(values));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof DefaultKeysetPageToken)) {
+			return false;
+		}
+		return Arrays.equals(values, ((DefaultKeysetPageToken) obj).values);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "KeysetPageToken " + Arrays.toString(values);
+	}
+
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.OrderSpecifier.NullHandling;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.Param;
+
+/**
+ * Default {@link PartitionedJpaQuery} implementation.
+ *
+ * @param <T> Query result type
+ *
+ * @since 5.7.1
+ */
+public class DefaultPartitionedJpaQuery<T> implements PartitionedJpaQuery<T> {
+
+	private static final String LOWER_BOUND_PARAMETER = "__holon_partition_lower";
+	private static final String UPPER_BOUND_PARAMETER = "__holon_partition_upper";
+
+	private final JpaOperationContext operationContext;
+
+	/**
+	 * Compiles the query, using the given function to transform the query metadata
+	 */
+	private final BiFunction<EntityManager, UnaryOperator<QueryMetadata>, CompiledJpaQuery> compiler;
+
+	private final NumberPath<?> key;
+
+	private final int partitions;
+
+	private Number min;
+	private Number max;
+
+	private Executor executor;
+
+	/**
+	 * Constructor.
+	 * @param operationContext Operation context (not null)
+	 * @param compiler The function to use to compile the query, transforming the query metadata using the provided
+	 *        function, if not <code>null</code> (not null)
+	 * @param key The partition key (not null)
+	 * @param partitions The partitions count
+	 * @param executor The default executor, <code>null</code> to use the default one
+	 */
+	public DefaultPartitionedJpaQuery(JpaOperationContext operationContext,
+			BiFunction<EntityManager, UnaryOperator<QueryMetadata>, CompiledJpaQuery> compiler, NumberPath<?> key,
+			int partitions, Executor executor) {
+		super();
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		ObjectUtils.argumentNotNull(compiler, "Query compiler must be not null");
+		ObjectUtils.argumentNotNull(key, "Partition key must be not null");
+		if (partitions < 1) {
+			throw new IllegalArgumentException("Partitions count must be greater than 0");
+		}
+		if (!isSupportedType(key.getType())) {
+			throw new IllegalArgumentException("Unsupported partition key type: " + key.getType().getName());
+		}
+		this.operationContext = operationContext;
+		this.compiler = compiler;
+		this.key = key;
+		this.partitions = partitions;
+		this.executor = executor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery#bounds(java.lang.Number, java.lang.Number)
+	 */
+	@Override
+	public PartitionedJpaQuery<T> bounds(Number min, Number max) {
+		ObjectUtils.argumentNotNull(min, "Minimum key value must be not null");
+		ObjectUtils.argumentNotNull(max, "Maximum key value must be not null");
+		this.min = min;
+		this.max = max;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery#executor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public PartitionedJpaQuery<T> executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery#fetch()
+	 */
+	@Override
+	public List<T> fetch() {
+		try (Stream<T> results = stream()) {
+			return results.collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PartitionedJpaQuery#stream()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Stream<T> stream() {
+		final QueryMetadata metadata = operationContext.withEntityManager(entityManager -> {
+			return compiler.apply(entityManager, null).getMetadata();
+		});
+		// validate the query outside of the operation context, to not wrap the exception
+		validate(metadata);
+		final Plan plan = operationContext.withEntityManager(entityManager -> {
+			return plan(entityManager, metadata);
+		});
+
+		// EntityManagers are not thread safe: each partition uses the EntityManager provided to its executor thread
+		final Executor partitionsExecutor = (executor != null) ? executor : QueryExecutors.getDefaultExecutor();
+		final List<CompletableFuture<List<?>>> futures = new ArrayList<>(plan.partitions.size());
+		final BlockingQueue<CompletableFuture<List<?>>> completed = new LinkedBlockingQueue<>();
+		for (Partition partition : plan.partitions) {
+			final CompletableFuture<List<?>> future = CompletableFuture
+					.supplyAsync(() -> operationContext.withEntityManager(entityManager -> {
+						return partition.query.getResultList(entityManager, partition.params, null);
+					}), partitionsExecutor);
+			future.whenComplete((r, e) -> completed.add(future));
+			futures.add(future);
+		}
+
+		operationContext.traceOperation("Partitioned query: [" + futures.size() + "] partitions by [" + key + "]"
+				+ (plan.ordered ? ", order preserving" : ""));
+
+		// ordered results are merged in partitions order, otherwise in completion order
+		return IntStream.range(0, futures.size()).mapToObj(i -> plan.ordered ? futures.get(i) : take(completed))
+				.flatMap(future -> (Stream<T>) join(future).stream())
+				.onClose(() -> futures.forEach(future -> future.cancel(false)));
+	}
+
+	/**
+	 * Checks whether the query described by given metadata can be partitioned.
+	 * @param metadata The query metadata
+	 * @throws IllegalStateException If the query is grouped, or if it is ordered by a nullable partition key without
+	 *         an explicit null handling
+	 */
+	private void validate(QueryMetadata metadata) {
+		if (!metadata.getGroupBy().isEmpty()) {
+			throw new IllegalStateException("A grouped query cannot be partitioned");
+		}
+		// the database default null placement is unknown, so the merged order could not be preserved
+		final OrderSpecifier<?> order = metadata.getOrderBy().isEmpty() ? null : metadata.getOrderBy().get(0);
+		if (order != null && key.equals(order.getTarget()) && order.getNullHandling() == NullHandling.Default
+				&& isNullable(operationContext.getEntityManagerFactory().getMetamodel())) {
+			throw new IllegalStateException("A query ordered by the nullable partition key [" + key
+					+ "] requires an explicit null handling, for example using nullsFirst() or nullsLast()");
+		}
+	}
+
+	/**
+	 * Compile the partitions queries, in results merge order.
+	 * @param entityManager The EntityManager to use
+	 * @param metadata The query metadata
+	 * @return The partitions plan
+	 */
+	@SuppressWarnings("unchecked")
+	private Plan plan(EntityManager entityManager, QueryMetadata metadata) {
+
+		// key bounds
+		Number lowest = min;
+		Number highest = max;
+		if (lowest == null || highest == null) {
+			final CompiledJpaQuery bounds = compiler.apply(entityManager,
+					m -> CountQueryOptimizer.aggregate(m, Projections.tuple(key.min(), key.max())));
+			final Tuple values = (Tuple) bounds.getSingleResult(entityManager, bounds.getMetadata().getParams(), null);
+			lowest = values.get(0, Number.class);
+			highest = values.get(1, Number.class);
+		}
+		final List<Number> splitPoints = getSplitPoints(lowest, highest);
+
+		// order by the partition key
+		final OrderSpecifier<?> order = metadata.getOrderBy().isEmpty() ? null : metadata.getOrderBy().get(0);
+		final boolean ordered = order != null && key.equals(order.getTarget());
+		final boolean descending = ordered && !order.isAscending();
+		final boolean nullsLast = ordered && order.getNullHandling() == NullHandling.NullsLast;
+
+		final Param<Number> lower = new Param<>((Class<Number>) (Class<?>) key.getType(), LOWER_BOUND_PARAMETER);
+		final Param<Number> upper = new Param<>((Class<Number>) (Class<?>) key.getType(), UPPER_BOUND_PARAMETER);
+
+		// the same statement is used for the partitions with the same bounds shape
+		final Map<Integer, CompiledJpaQuery> statements = new HashMap<>(4);
+		final int count = splitPoints.size() + 1;
+		final List<Partition> partitionList = new ArrayList<>(count);
+		for (int position = 0; position < count; position++) {
+			final int index = descending ? count - 1 - position : position;
+			final Number lowerValue = (index > 0) ? splitPoints.get(index - 1) : null;
+			final Number upperValue = (index < count - 1) ? splitPoints.get(index) : null;
+			final boolean includeNulls = nullsLast ? (position == count - 1) : (position == 0);
+
+			final int shape = ((lowerValue != null) ? 1 : 0) | ((upperValue != null) ? 2 : 0)
+					| (includeNulls ? 4 : 0);
+			final CompiledJpaQuery query = statements.computeIfAbsent(shape, s -> compiler.apply(entityManager, m -> {
+				final Predicate range = getRangePredicate((lowerValue != null) ? lower : null,
+						(upperValue != null) ? upper : null, includeNulls);
+				if (range != null) {
+					m.addWhere(range);
+				}
+				return m;
+			}));
+
+			final Map<ParamExpression<?>, Object> params = new HashMap<>(query.getMetadata().getParams());
+			if (lowerValue != null) {
+				params.put(lower, lowerValue);
+			}
+			if (upperValue != null) {
+				params.put(upper, upperValue);
+			}
+			partitionList.add(new Partition(query, params));
+		}
+		return new Plan(partitionList, ordered);
+	}
+
+	/**
+	 * Checks whether the partition key may be <code>null</code>, i.e. it is not a primitive or an identifier attribute.
+	 * The metamodel attribute optionality is not trusted, since some ORM platforms report nullable attributes as not
+	 * optional.
+	 * @param metamodel JPA metamodel
+	 * @return <code>true</code> if the partition key may be <code>null</code>
+	 */
+	private boolean isNullable(Metamodel metamodel) {
+		final Path<?> parent = key.getMetadata().getParent();
+		if (parent == null) {
+			return true;
+		}
+		try {
+			final Attribute<?, ?> attribute = metamodel.managedType(parent.getType())
+					.getAttribute(key.getMetadata().getName());
+			if (attribute instanceof SingularAttribute) {
+				final SingularAttribute<?, ?> singular = (SingularAttribute<?, ?>) attribute;
+				return !singular.getJavaType().isPrimitive() && !singular.isId();
+			}
+		} catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+			// not a managed type attribute
+		}
+		return true;
+	}
+
+	/**
+	 * Get the partition range predicate.
+	 * @param lower Optional inclusive lower bound parameter
+	 * @param upper Optional exclusive upper bound parameter
+	 * @param includeNulls Whether to include the <code>null</code> key values
+	 * @return The range predicate, <code>null</code> if the partition is not restricted
+	 */
+	private Predicate getRangePredicate(Param<Number> lower, Param<Number> upper, boolean includeNulls) {
+		Predicate range = null;
+		if (lower != null) {
+			range = ExpressionUtils.predicate(Ops.GOE, key, lower);
+		}
+		if (upper != null) {
+			final Predicate below = ExpressionUtils.predicate(Ops.LT, key, upper);
+			range = (range != null) ? ExpressionUtils.and(range, below) : below;
+		}
+		if (range != null && includeNulls) {
+			range = ExpressionUtils.or(range, ExpressionUtils.predicate(Ops.IS_NULL, key));
+		}
+		return range;
+	}
+
+	/**
+	 * Split the key range into partitions of the same width.
+	 * @param lowest The minimum key value
+	 * @param highest The maximum key value
+	 * @return The partitions split points, in ascending order, converted to the key type
+	 */
+	private List<Number> getSplitPoints(Number lowest, Number highest) {
+		if (lowest == null || highest == null) {
+			return Collections.emptyList();
+		}
+		final BigDecimal from = toBigDecimal(lowest);
+		final BigDecimal width = toBigDecimal(highest).subtract(from);
+		if (width.signum() <= 0) {
+			return Collections.emptyList();
+		}
+		final boolean integral = isIntegral(key.getType());
+		final List<Number> points = new ArrayList<>(partitions - 1);
+		BigDecimal last = from;
+		for (int i = 1; i < partitions; i++) {
+			BigDecimal point = from.add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(partitions),
+					MathContext.DECIMAL64));
+			if (integral) {
+				point = point.setScale(0, RoundingMode.CEILING);
+			}
+			if (point.compareTo(last) > 0) {
+				points.add(toKeyType(point));
+				last = point;
+			}
+		}
+		return points;
+	}
+
+	private Number toKeyType(BigDecimal value) {
+		final Class<?> type = key.getType();
+		if (Long.class == type) {
+			return value.longValue();
+		}
+		if (Integer.class == type) {
+			return value.intValue();
+		}
+		if (Short.class == type) {
+			return value.shortValue();
+		}
+		if (Byte.class == type) {
+			return value.byteValue();
+		}
+		if (BigInteger.class == type) {
+			return value.toBigInteger();
+		}
+		if (Double.class == type) {
+			return value.doubleValue();
+		}
+		if (Float.class == type) {
+			return value.floatValue();
+		}
+		return value;
+	}
+
+	private static BigDecimal toBigDecimal(Number value) {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		}
+		if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return BigDecimal.valueOf(value.doubleValue());
+		}
+		return BigDecimal.valueOf(value.longValue());
+	}
+
+	private static boolean isIntegral(Class<?> type) {
+		return Long.class == type || Integer.class == type || Short.class == type || Byte.class == type
+				|| BigInteger.class == type;
+	}
+
+	private static boolean isSupportedType(Class<?> type) {
+		return isIntegral(type) || Double.class == type || Float.class == type || BigDecimal.class == type;
+	}
+
+	private static CompletableFuture<List<?>> take(BlockingQueue<CompletableFuture<List<?>>> completed) {
+		try {
+			return completed.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the partitions results", e);
+		}
+	}
+
+	private static List<?> join(CompletableFuture<List<?>> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DefaultPartitionedJpaQuery [key=" + key + ", partitions=" + partitions + ", min=" + min + ", max="
+				+ max + "]";
+	}
+
+	private static final class Plan {
+
+		final List<Partition> partitions;
+		final boolean ordered;
+
+		Plan(List<Partition> partitions, boolean ordered) {
+			super();
+			this.partitions = partitions;
+			this.ordered = ordered;
+		}
+
+	}
+
+	private static final class Partition {
+
+		final CompiledJpaQuery query;
+		final Map<ParamExpression<?>, Object> params;
+
+		Partition(CompiledJpaQuery query, Map<ParamExpression<?>, Object> params) {
+			super();
+			this.query = query;
+			this.params = params;
+		}
+
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery;
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.NonUniqueResultException;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.QueryResults;
+import com.querydsl.core.types.ParamExpression;
+
+/**
+ * Default {@link PreparedJpaQuery} implementation.
+ *
+ * @param <T> Query result type
+ *
+ * @since 5.7.1
+ */
+public class DefaultPreparedJpaQuery<T> implements PreparedJpaQuery<T> {
+
+	private final JpaOperationContext operationContext;
+
+	private final CompiledJpaQuery compiledQuery;
+
+	private final Map<ParamExpression<?>, Object> params;
+
+	private final QueryModifiers modifiers;
+
+	/**
+	 * Constructor.
+	 * @param operationContext Operation context (not null)
+	 * @param compiledQuery The compiled query (not null)
+	 */
+	public DefaultPreparedJpaQuery(JpaOperationContext operationContext, CompiledJpaQuery compiledQuery) {
+		this(operationContext, compiledQuery, compiledQuery.getMetadata().getParams(),
+				compiledQuery.getMetadata().getModifiers());
+	}
+
+	private DefaultPreparedJpaQuery(JpaOperationContext operationContext, CompiledJpaQuery compiledQuery,
+			Map<ParamExpression<?>, Object> params, QueryModifiers modifiers) {
+		super();
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		ObjectUtils.argumentNotNull(compiledQuery, "CompiledJpaQuery must be not null");
+		this.operationContext = operationContext;
+		this.compiledQuery = compiledQuery;
+		this.params = (params != null) ? Collections.unmodifiableMap(params) : Collections.emptyMap();
+		this.modifiers = (modifiers != null) ? modifiers : QueryModifiers.EMPTY;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#set(com.querydsl.core.types.ParamExpression,
+	 * java.lang.Object)
+	 */
+	@Override
+	public <P> PreparedJpaQuery<T> set(ParamExpression<P> param, P value) {
+		ObjectUtils.argumentNotNull(param, "Parameter must be not null");
+		final Map<ParamExpression<?>, Object> bindings = new HashMap<>(params);
+		bindings.put(param, value);
+		return new DefaultPreparedJpaQuery<>(operationContext, compiledQuery, bindings, modifiers);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#limit(long)
+	 */
+	@Override
+	public PreparedJpaQuery<T> limit(long limit) {
+		return restrict(new QueryModifiers(limit, modifiers.getOffset()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#offset(long)
+	 */
+	@Override
+	public PreparedJpaQuery<T> offset(long offset) {
+		return restrict(new QueryModifiers(modifiers.getLimit(), offset));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#restrict(com.querydsl.core.QueryModifiers)
+	 */
+	@Override
+	public PreparedJpaQuery<T> restrict(QueryModifiers modifiers) {
+		ObjectUtils.argumentNotNull(modifiers, "QueryModifiers must be not null");
+		return new DefaultPreparedJpaQuery<>(operationContext, compiledQuery, params, modifiers);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#getQueryString()
+	 */
+	@Override
+	public String getQueryString() {
+		return operationContext.withEntityManager(entityManager -> {
+			return compiledQuery.getQueryString(entityManager, false);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetch()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<T> fetch() {
+		return operationContext.withEntityManager(entityManager -> {
+			return (List<T>) compiledQuery.getResultList(entityManager, params, modifiers);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetchFirst()
+	 */
+	@Override
+	public T fetchFirst() {
+		return limit(1).fetchOne();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetchOne()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T fetchOne() throws NonUniqueResultException {
+		return operationContext.withEntityManager(entityManager -> {
+			try {
+				return (T) compiledQuery.getSingleResult(entityManager, params, modifiers);
+			} catch (@SuppressWarnings("unused") javax.persistence.NoResultException e) {
+				return null;
+			} catch (@SuppressWarnings("unused") javax.persistence.NonUniqueResultException e) {
+				throw new NonUniqueResultException();
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#iterate()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public CloseableIterator<T> iterate() {
+		if (compiledQuery.isDedicatedEntityManager()) {
+			// the dedicated EntityManager is closed with the iterator
+			final EntityManager entityManager = operationContext.getEntityManagerFactory().createEntityManager();
+			return (CloseableIterator<T>) compiledQuery.iterate(entityManager, params, modifiers,
+					entityManager::close);
+		}
+		return operationContext
+				.withEntityManager(entityManager -> (CloseableIterator<T>) compiledQuery.iterate(entityManager,
+						params, modifiers));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery#stream()
+	 */
+	@Override
+	public Stream<T> stream() {
+		return CompiledJpaQuery.stream(iterate());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetchResults()
+	 */
+	@Override
+	public QueryResults<T> fetchResults() {
+		return operationContext.withEntityManager(entityManager -> {
+			long total = compiledQuery.getCount(entityManager, params);
+			if (total > 0) {
+				@SuppressWarnings("unchecked")
+				List<T> list = (List<T>) compiledQuery.getResultList(entityManager, params, modifiers);
+				return new QueryResults<>(list, modifiers, total);
+			} else {
+				return QueryResults.emptyResults();
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.querydsl.core.Fetchable#fetchCount()
+	 */
+	@Override
+	public long fetchCount() {
+		return operationContext.withEntityManager(entityManager -> {
+			return compiledQuery.getCount(entityManager, params);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DefaultPreparedJpaQuery [compiledQuery=" + compiledQuery + ", params=" + params + ", modifiers="
+				+ modifiers + "]";
+	}
+
+}
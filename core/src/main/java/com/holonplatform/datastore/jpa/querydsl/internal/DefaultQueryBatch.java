@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.JpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.QueryBatch;
+import com.querydsl.core.QueryResults;
+
+/**
+ * Default {@link QueryBatch} implementation.
+ *
+ * @since 5.7.1
+ */
+public class DefaultQueryBatch implements QueryBatch {
+
+	private final JpaOperationContext operationContext;
+
+	private final List<BatchResult<?>> results = new ArrayList<>();
+
+	private int parallelism = 1;
+
+	private Executor executor;
+
+	/**
+	 * Constructor.
+	 * @param operationContext Operation context (not null)
+	 */
+	public DefaultQueryBatch(JpaOperationContext operationContext) {
+		super();
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		this.operationContext = operationContext;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#fetch(com.holonplatform.datastore.jpa.querydsl.JpaQuery)
+	 */
+	@Override
+	public <T> Result<List<T>> fetch(JpaQuery<T> query) {
+		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		return add(entityManager -> (query instanceof DefaultJpaQuery)
+				? ((DefaultJpaQuery<T>) query).fetch(entityManager)
+				: query.fetch());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.holonplatform.datastore.jpa.querydsl.QueryBatch#fetchOne(com.holonplatform.datastore.jpa.querydsl.JpaQuery)
+	 */
+	@Override
+	public <T> Result<T> fetchOne(JpaQuery<T> query) {
+		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		return add(entityManager -> (query instanceof DefaultJpaQuery)
+				? ((DefaultJpaQuery<T>) query).fetchOne(entityManager)
+				: query.fetchOne());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.holonplatform.datastore.jpa.querydsl.QueryBatch#fetchCount(com.holonplatform.datastore.jpa.querydsl.JpaQuery)
+	 */
+	@Override
+	public Result<Long> fetchCount(JpaQuery<?> query) {
+		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		return add(entityManager -> (query instanceof DefaultJpaQuery)
+				? ((DefaultJpaQuery<?>) query).fetchCount(entityManager)
+				: query.fetchCount());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#fetchResults(com.holonplatform.datastore.jpa.querydsl.
+	 * JpaQuery)
+	 */
+	@Override
+	public <T> Result<QueryResults<T>> fetchResults(JpaQuery<T> query) {
+		ObjectUtils.argumentNotNull(query, "Query must be not null");
+		return add(entityManager -> (query instanceof DefaultJpaQuery)
+				? ((DefaultJpaQuery<T>) query).fetchResults(entityManager)
+				: query.fetchResults());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#parallelism(int)
+	 */
+	@Override
+	public QueryBatch parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than 0");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#executor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public QueryBatch executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#size()
+	 */
+	@Override
+	public int size() {
+		return results.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryBatch#execute()
+	 */
+	@Override
+	public void execute() {
+		final List<BatchResult<?>> batch = new ArrayList<>(results);
+		if (batch.isEmpty()) {
+			return;
+		}
+		final int groups = Math.min(parallelism, batch.size());
+		if (groups == 1) {
+			// all the queries share the same EntityManager
+			operationContext.withEntityManager(entityManager -> {
+				for (BatchResult<?> result : batch) {
+					result.execute(entityManager);
+				}
+				return null;
+			});
+		} else {
+			// EntityManagers are not thread safe: each group uses the EntityManager provided to its executor thread
+			final Executor batchExecutor = (executor != null) ? executor : QueryExecutors.getDefaultExecutor();
+			final CompletableFuture<?>[] futures = new CompletableFuture<?>[groups];
+			for (int group = 0; group < groups; group++) {
+				final int first = group;
+				futures[group] = CompletableFuture.runAsync(() -> operationContext.withEntityManager(entityManager -> {
+					for (int i = first; i < batch.size(); i += groups) {
+						batch.get(i).execute(entityManager);
+					}
+					return null;
+				}), batchExecutor);
+			}
+			try {
+				CompletableFuture.allOf(futures).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		operationContext.traceOperation(
+				"Query batch: [" + batch.size() + "] queries executed using [" + groups + "] EntityManager(s)");
+	}
+
+	/**
+	 * Add a query operation to the batch.
+	 * @param <R> Result type
+	 * @param operation The operation to execute using the batch EntityManager
+	 * @return The operation result
+	 */
+	private <R> Result<R> add(Function<EntityManager, R> operation) {
+		final BatchResult<R> result = new BatchResult<>(operation);
+		results.add(result);
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DefaultQueryBatch [size=" + results.size() + ", parallelism=" + parallelism + "]";
+	}
+
+	private static final class BatchResult<R> implements Result<R> {
+
+		private final Function<EntityManager, R> operation;
+
+		private volatile boolean available;
+		private volatile R value;
+
+		BatchResult(Function<EntityManager, R> operation) {
+			super();
+			this.operation = operation;
+		}
+
+		void execute(EntityManager entityManager) {
+			value = operation.apply(entityManager);
+			available = true;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return available;
+		}
+
+		@Override
+		public R get() {
+			if (!available) {
+				throw new IllegalStateException("The query batch was not executed yet");
+			}
+			return value;
+		}
+
+	}
+
+}
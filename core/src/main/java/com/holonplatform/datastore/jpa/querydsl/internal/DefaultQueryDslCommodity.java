@@ -15,10 +15,19 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.internal;
 
+import java.util.concurrent.Executor;
+
 import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics;
 import com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause;
 import com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause;
+import com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics;
+import com.holonplatform.datastore.jpa.querydsl.QueryBatch;
 import com.holonplatform.datastore.jpa.querydsl.QueryDsl;
+import com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics;
+import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslExpressionResolverRegistry;
+import com.holonplatform.datastore.jpa.querydsl.internal.resolvers.QueryDslDataTargetResolver;
 import com.querydsl.core.types.EntityPath;
 
 /**
@@ -32,9 +41,21 @@ public class DefaultQueryDslCommodity implements QueryDsl {
 
 	private final JpaOperationContext operationContext;
 
+	private final JPQLQueryCache queryCache;
+
+	private final QueryDslExpressionResolverRegistry expressionResolvers;
+
+	private Boolean defaultReadOnly;
+
+	private Executor defaultAsyncExecutor;
+
 	public DefaultQueryDslCommodity(JpaOperationContext operationContext) {
 		super();
 		this.operationContext = operationContext;
+		this.queryCache = JPQLQueryCache.get(operationContext.getEntityManagerFactory());
+		// default resolvers are registered once and shared by all the queries
+		this.expressionResolvers = QueryDslExpressionResolverRegistry.create(operationContext.getExpressionResolvers())
+				.withExpressionResolvers(DefaultJpaQuery.getDefaultExpressionResolvers());
 	}
 
 	/*
@@ -43,7 +64,43 @@ public class DefaultQueryDslCommodity implements QueryDsl {
 	 */
 	@Override
 	public DefaultJpaQuery<?> query() {
-		return new DefaultJpaQuery<>(operationContext);
+		final DefaultJpaQuery<?> query = new DefaultJpaQuery<>(operationContext, queryCache, expressionResolvers);
+		if (defaultReadOnly != null) {
+			query.setReadOnly(defaultReadOnly);
+		}
+		if (defaultAsyncExecutor != null) {
+			query.setAsyncExecutor(defaultAsyncExecutor);
+		}
+		return query;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#batch()
+	 */
+	@Override
+	public QueryBatch batch() {
+		return new DefaultQueryBatch(operationContext);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#setDefaultReadOnly(boolean)
+	 */
+	@Override
+	public QueryDsl setDefaultReadOnly(boolean readOnly) {
+		this.defaultReadOnly = readOnly;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#setDefaultAsyncExecutor(java.util.concurrent.Executor)
+	 */
+	@Override
+	public QueryDsl setDefaultAsyncExecutor(Executor executor) {
+		this.defaultAsyncExecutor = executor;
+		return this;
 	}
 
 	/*
@@ -64,4 +121,43 @@ public class DefaultQueryDslCommodity implements QueryDsl {
 		return new DefaultJpaDeleteClause(operationContext, entity);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#getJpqlCacheStatistics()
+	 */
+	@Override
+	public JpqlCacheStatistics getJpqlCacheStatistics() {
+		return queryCache;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#getFetchResultsStatistics()
+	 */
+	@Override
+	public FetchResultsStatistics getFetchResultsStatistics() {
+		return FetchResultsSupport.get(operationContext.getEntityManagerFactory());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#getResultCacheStatistics()
+	 */
+	@Override
+	public ResultCacheStatistics getResultCacheStatistics() {
+		return QueryResultCache.get(operationContext.getEntityManagerFactory());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.QueryDsl#warmUpEntityPaths()
+	 */
+	@Override
+	public EntityPathWarmUp warmUpEntityPaths() {
+		final EntityPathWarmUp result = QueryDslDataTargetResolver
+				.warmUp(operationContext.getEntityManagerFactory());
+		operationContext.traceOperation(result.toString());
+		return result;
+	}
+
 }
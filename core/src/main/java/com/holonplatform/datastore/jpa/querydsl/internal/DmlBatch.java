@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.internal.JPQLQueryCache.QueryShape;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+import com.querydsl.jpa.impl.JPAProvider;
+import com.querydsl.jpa.impl.JPAUtil;
+
+/**
+ * A batch of bulk update or delete statements on the same entity.
+ * <p>
+ * When the batch is executed, the statements are grouped by shape, i.e. by their structure regardless of the scalar
+ * constants of the <em>set</em> clause and of the <em>where</em> clause comparisons. The JPQL of each group is
+ * serialized and prepared only once, and the prepared {@link Query} is executed for each statement of the group,
+ * binding the statement constants as parameters. The statements are executed in the order they were added to the
+ * batch.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class DmlBatch {
+
+	private static final String VALUE_SLOT_NAME_PREFIX = "__holon_batch_value_";
+
+	private final List<BatchStatement> statements = new ArrayList<>();
+
+	/**
+	 * Add a statement to the batch.
+	 * @param metadata The statement metadata (not null)
+	 * @param updates The update clause <em>set</em> expressions, <code>null</code> for a delete statement
+	 */
+	public void add(QueryMetadata metadata, Map<Path<?>, Expression<?>> updates) {
+		ObjectUtils.argumentNotNull(metadata, "Statement metadata must be not null");
+		statements.add(new BatchStatement(metadata, (updates != null) ? new LinkedHashMap<>(updates) : null));
+	}
+
+	/**
+	 * Get the number of statements in the batch.
+	 * @return The batch size
+	 */
+	public int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Execute all the statements of the batch and clear the batch.
+	 * @param operationContext Operation context (not null)
+	 * @param entityType The type of the entity to update or delete (not null)
+	 * @return The number of affected entities for each statement, in the order the statements were added to the batch
+	 */
+	public long[] execute(JpaOperationContext operationContext, Class<?> entityType) {
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		if (statements.isEmpty()) {
+			return new long[0];
+		}
+		return operationContext.withEntityManager(entityManager -> {
+			return execute(operationContext, entityManager, entityType);
+		});
+	}
+
+	/**
+	 * Execute all the statements of the batch using given {@link EntityManager} and clear the batch.
+	 * @param operationContext Operation context (not null)
+	 * @param entityManager The EntityManager to use (not null)
+	 * @param entityType The type of the entity to update or delete (not null)
+	 * @return The number of affected entities for each statement, in the order the statements were added to the batch
+	 */
+	public long[] execute(JpaOperationContext operationContext, EntityManager entityManager, Class<?> entityType) {
+		ObjectUtils.argumentNotNull(operationContext, "JpaOperationContext must be not null");
+		ObjectUtils.argumentNotNull(entityManager, "EntityManager must be not null");
+		if (statements.isEmpty()) {
+			return new long[0];
+		}
+		final List<BatchStatement> batch = new ArrayList<>(statements);
+		statements.clear();
+		final JPQLTemplates templates = JPAProvider.getTemplates(entityManager);
+		final Map<List<Object>, PreparedStatement> prepared = new HashMap<>();
+		// invalidate the cached query results which refer to the entity
+		final long[] counts = QueryResultCache.get(operationContext.getEntityManagerFactory()).update(entityManager,
+				entityType, () -> {
+					final long[] results = new long[batch.size()];
+					for (int i = 0; i < results.length; i++) {
+						results[i] = batch.get(i).execute(operationContext, entityManager, templates, prepared);
+					}
+					return results;
+				});
+		if (batch.size() > 1) {
+			operationContext.traceOperation("Batch: [" + batch.size() + "] statements executed using ["
+					+ prepared.size() + "] prepared JPQL statement(s)");
+		}
+		return counts;
+	}
+
+	private static final class BatchStatement {
+
+		private final QueryMetadata metadata;
+		private final Map<Path<?>, Expression<?>> updates;
+
+		BatchStatement(QueryMetadata metadata, Map<Path<?>, Expression<?>> updates) {
+			super();
+			this.metadata = metadata;
+			this.updates = updates;
+		}
+
+		long execute(JpaOperationContext operationContext, EntityManager entityManager, JPQLTemplates templates,
+				Map<List<Object>, PreparedStatement> prepared) {
+			final QueryShape shape = QueryShape.of(templates, metadata, false);
+			final Map<ParamExpression<?>, Object> params = new HashMap<>(shape.getParams(metadata.getParams()));
+			// abstract the set clause constants
+			final Map<Path<?>, Expression<?>> shapeUpdates;
+			if (updates != null) {
+				shapeUpdates = new LinkedHashMap<>(updates.size());
+				for (Entry<Path<?>, Expression<?>> update : updates.entrySet()) {
+					final Expression<?> value = update.getValue();
+					if (value instanceof Constant
+							&& JPQLQueryCache.isParametrizable(update.getKey(), ((Constant<?>) value).getConstant())) {
+						final String name = VALUE_SLOT_NAME_PREFIX + shapeUpdates.size();
+						shapeUpdates.put(update.getKey(),
+								JPQLQueryCache.createConstantSlot(name, ((Constant<?>) value).getConstant(), params));
+					} else {
+						shapeUpdates.put(update.getKey(), value);
+					}
+				}
+			} else {
+				shapeUpdates = null;
+			}
+			final List<Object> key = (shapeUpdates != null)
+					? Arrays.<Object> asList(shape, new ArrayList<>(shapeUpdates.keySet()),
+							new ArrayList<>(shapeUpdates.values()))
+					: Arrays.<Object> asList(shape);
+			final PreparedStatement statement = prepared.computeIfAbsent(key, k -> {
+				final JPQLSerializer serializer = new JPQLSerializer(templates, entityManager);
+				if (shapeUpdates != null) {
+					serializer.serializeForUpdate(shape.getMetadata(), shapeUpdates);
+				} else {
+					serializer.serializeForDelete(shape.getMetadata());
+				}
+				// trace
+				final String queryString = serializer.toString();
+				operationContext.trace(queryString.replace('\n', ' '));
+				return new PreparedStatement(entityManager.createQuery(queryString), serializer.getConstants());
+			});
+			JPAUtil.setConstants(statement.query, statement.constants, params);
+			return statement.query.executeUpdate();
+		}
+
+	}
+
+	private static final class PreparedStatement {
+
+		final Query query;
+		final List<Object> constants;
+
+		PreparedStatement(Query query, List<Object> constants) {
+			super();
+			this.query = query;
+			this.constants = constants;
+		}
+
+	}
+
+}
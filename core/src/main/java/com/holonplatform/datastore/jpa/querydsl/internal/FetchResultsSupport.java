@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.holonplatform.core.internal.utils.ObjectUtils;
+import com.holonplatform.datastore.jpa.context.JpaContext;
+import com.holonplatform.datastore.jpa.context.JpaOperationContext;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStrategy;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.QueryResults;
+import com.querydsl.core.types.ParamExpression;
+
+/**
+ * Executes the count and results page queries of a {@link CompiledJpaQuery} according to a
+ * {@link FetchResultsStrategy}, collecting the {@link FetchResultsStatistics}.
+ * <p>
+ * An instance is bound to each {@link EntityManagerFactory}. The totals used by the
+ * {@link FetchResultsStrategy#CACHED_TOTAL} strategy are stored in the {@link QueryResultCache} bound to the same
+ * EntityManagerFactory, so they are invalidated by the update and delete clauses like any other cached result.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class FetchResultsSupport implements FetchResultsStatistics {
+
+	private final static Map<EntityManagerFactory, FetchResultsSupport> INSTANCES = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	private final Duration cachedTotalTtl;
+
+	private final Map<FetchResultsStrategy, LongAdder> executions = new EnumMap<>(FetchResultsStrategy.class);
+	private final LongAdder skippedCounts = new LongAdder();
+	private final LongAdder concurrentExecutions = new LongAdder();
+	private final LongAdder savedNanos = new LongAdder();
+
+	/**
+	 * Moving average of the count queries execution time
+	 */
+	private final AtomicLong averageCountNanos = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param cachedTotalTtl The {@link FetchResultsStrategy#CACHED_TOTAL} cache entries expiration time in
+	 *        milliseconds
+	 */
+	public FetchResultsSupport(long cachedTotalTtl) {
+		super();
+		this.cachedTotalTtl = Duration.ofMillis(Math.max(0L, cachedTotalTtl));
+		for (FetchResultsStrategy strategy : FetchResultsStrategy.values()) {
+			executions.put(strategy, new LongAdder());
+		}
+	}
+
+	/**
+	 * Get the instance bound to given {@link EntityManagerFactory}.
+	 * <p>
+	 * The totals cache expiration time is obtained from the {@link FetchResultsStrategy#CACHED_TOTAL_TTL_PROPERTY}
+	 * system property, if available.
+	 * </p>
+	 * @param entityManagerFactory The EntityManagerFactory (not null)
+	 * @return The fetch results support instance
+	 */
+	public static FetchResultsSupport get(EntityManagerFactory entityManagerFactory) {
+		return INSTANCES.computeIfAbsent(entityManagerFactory,
+				emf -> new FetchResultsSupport(Long.getLong(FetchResultsStrategy.CACHED_TOTAL_TTL_PROPERTY,
+						FetchResultsStrategy.DEFAULT_CACHED_TOTAL_TTL)));
+	}
+
+	/**
+	 * Execute given compiled query to obtain the {@link QueryResults}, using given strategy.
+	 * @param context Operation context
+	 * @param entityManager EntityManager to use
+	 * @param compiledQuery The compiled query
+	 * @param params Query parameters
+	 * @param modifiers Query modifiers
+	 * @param strategy The strategy to use (not null)
+	 * @param executor The executor to use for the {@link FetchResultsStrategy#CONCURRENT} strategy, <code>null</code>
+	 *        to use the default one
+	 * @return The query results
+	 */
+	public QueryResults<?> fetchResults(JpaOperationContext context, EntityManager entityManager,
+			CompiledJpaQuery compiledQuery, Map<ParamExpression<?>, Object> params, QueryModifiers modifiers,
+			FetchResultsStrategy strategy, Executor executor) {
+		ObjectUtils.argumentNotNull(strategy, "FetchResultsStrategy must be not null");
+		executions.get(strategy).increment();
+		switch (strategy) {
+		case PAGE_FIRST:
+			return fetchPageFirst(context, entityManager, compiledQuery, params, modifiers);
+		case CONCURRENT:
+			if (!entityManager.isJoinedToTransaction()) {
+				return fetchConcurrent(context, entityManager, compiledQuery, params, modifiers, executor);
+			}
+			context.traceOperation("fetchResults: active transaction, count and page queries executed sequentially");
+			return fetchSequential(entityManager, compiledQuery, params, modifiers,
+					count(entityManager, compiledQuery, params));
+		case CACHED_TOTAL:
+			return fetchSequential(entityManager, compiledQuery, params, modifiers,
+					cachedCount(context, entityManager, compiledQuery, params));
+		case SEQUENTIAL:
+		default:
+			return fetchSequential(entityManager, compiledQuery, params, modifiers,
+					count(entityManager, compiledQuery, params));
+		}
+	}
+
+	private static QueryResults<?> fetchSequential(EntityManager entityManager, CompiledJpaQuery compiledQuery,
+			Map<ParamExpression<?>, Object> params, QueryModifiers modifiers, long total) {
+		if (total > 0) {
+			return new QueryResults<>(compiledQuery.getResultList(entityManager, params, modifiers), modifiers, total);
+		}
+		return QueryResults.emptyResults();
+	}
+
+	private QueryResults<?> fetchPageFirst(JpaContext context, EntityManager entityManager,
+			CompiledJpaQuery compiledQuery, Map<ParamExpression<?>, Object> params, QueryModifiers modifiers) {
+		final List<?> results = compiledQuery.getResultList(entityManager, params, modifiers);
+		final Long limit = (modifiers != null) ? modifiers.getLimit() : null;
+		final long offset = (modifiers != null && modifiers.getOffset() != null) ? modifiers.getOffset() : 0L;
+		final long total;
+		// the total can be inferred when the page is not full, unless an empty page beyond the first is returned
+		if ((limit == null || results.size() < limit) && (offset == 0 || !results.isEmpty())) {
+			total = offset + results.size();
+			skippedCounts.increment();
+			final long saved = averageCountNanos.get();
+			savedNanos.add(saved);
+			context.traceOperation("fetchResults [" + FetchResultsStrategy.PAGE_FIRST
+					+ "]: count query skipped, estimated time saved [" + TimeUnit.NANOSECONDS.toMicros(saved) + "] us");
+		} else {
+			total = count(entityManager, compiledQuery, params);
+		}
+		return (total > 0) ? new QueryResults<>(results, modifiers, total) : QueryResults.emptyResults();
+	}
+
+	private QueryResults<?> fetchConcurrent(JpaOperationContext context, EntityManager entityManager,
+			CompiledJpaQuery compiledQuery, Map<ParamExpression<?>, Object> params, QueryModifiers modifiers,
+			Executor executor) {
+		final long start = System.nanoTime();
+		// EntityManagers are not thread safe: the count query uses the EntityManager provided to the executor thread
+		final CompletableFuture<long[]> count = CompletableFuture.supplyAsync(
+				() -> context.withEntityManager(countEntityManager -> {
+					final long countStart = System.nanoTime();
+					final long total = count(countEntityManager, compiledQuery, params);
+					return new long[] { total, System.nanoTime() - countStart };
+				}), (executor != null) ? executor : QueryExecutors.getDefaultExecutor());
+
+		final long pageStart = System.nanoTime();
+		final List<?> results;
+		try {
+			results = compiledQuery.getResultList(entityManager, params, modifiers);
+		} catch (RuntimeException e) {
+			count.cancel(false);
+			throw e;
+		}
+		final long pageNanos = System.nanoTime() - pageStart;
+
+		final long[] counted;
+		try {
+			counted = count.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		concurrentExecutions.increment();
+
+		final long saved = Math.max(0L, (counted[1] + pageNanos) - (System.nanoTime() - start));
+		savedNanos.add(saved);
+		context.traceOperation("fetchResults [" + FetchResultsStrategy.CONCURRENT
+				+ "]: count and page queries executed concurrently, estimated time saved ["
+				+ TimeUnit.NANOSECONDS.toMicros(saved) + "] us");
+
+		return (counted[0] > 0) ? new QueryResults<>(results, modifiers, counted[0]) : QueryResults.emptyResults();
+	}
+
+	private long cachedCount(JpaContext context, EntityManager entityManager, CompiledJpaQuery compiledQuery,
+			Map<ParamExpression<?>, Object> params) {
+		if (cachedTotalTtl.isZero()) {
+			return count(entityManager, compiledQuery, params);
+		}
+		final Object key = Arrays.asList(FetchResultsStrategy.CACHED_TOTAL,
+				compiledQuery.getCountKey(entityManager, params));
+		final boolean[] counted = new boolean[] { false };
+		final Long total = QueryResultCache.get(context.getEntityManagerFactory()).get(key,
+				compiledQuery.getReferencedTypes(), cachedTotalTtl, () -> {
+					counted[0] = true;
+					return count(entityManager, compiledQuery, params);
+				});
+		if (!counted[0]) {
+			skippedCounts.increment();
+			final long saved = averageCountNanos.get();
+			savedNanos.add(saved);
+			context.traceOperation("fetchResults [" + FetchResultsStrategy.CACHED_TOTAL
+					+ "]: cached total used, estimated time saved [" + TimeUnit.NANOSECONDS.toMicros(saved) + "] us");
+		}
+		return total;
+	}
+
+	/**
+	 * Execute the count query, tracking its execution time.
+	 * @param entityManager EntityManager to use
+	 * @param compiledQuery The compiled query
+	 * @param params Query parameters
+	 * @return The results count
+	 */
+	private long count(EntityManager entityManager, CompiledJpaQuery compiledQuery,
+			Map<ParamExpression<?>, Object> params) {
+		final long start = System.nanoTime();
+		final long total = compiledQuery.getCount(entityManager, params);
+		final long elapsed = System.nanoTime() - start;
+		averageCountNanos.accumulateAndGet(elapsed, (average, sample) -> (average == 0) ? sample
+				: average + (sample - average) / 8);
+		return total;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics#getExecutionCount(com.holonplatform.datastore.
+	 * jpa.querydsl.FetchResultsStrategy)
+	 */
+	@Override
+	public long getExecutionCount(FetchResultsStrategy strategy) {
+		ObjectUtils.argumentNotNull(strategy, "FetchResultsStrategy must be not null");
+		return executions.get(strategy).sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics#getSkippedCountQueries()
+	 */
+	@Override
+	public long getSkippedCountQueries() {
+		return skippedCounts.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics#getConcurrentExecutions()
+	 */
+	@Override
+	public long getConcurrentExecutions() {
+		return concurrentExecutions.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics#getEstimatedTimeSavedMillis()
+	 */
+	@Override
+	public long getEstimatedTimeSavedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(savedNanos.sum());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FetchResultsSupport [executions=" + executions + ", skippedCountQueries=" + getSkippedCountQueries()
+				+ ", concurrentExecutions=" + getConcurrentExecutions() + ", estimatedTimeSavedMillis="
+				+ getEstimatedTimeSavedMillis() + "]";
+	}
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManagerFactory;
+
+import com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryFlag;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.core.types.Visitor;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.jpa.JPQLTemplates;
+
+/**
+ * A bounded and concurrent cache of serialized JPQL statements, keyed by the query structure.
+ * <p>
+ * The scalar constants used as operands of the comparison operations of the query <em>where</em> clause are
+ * abstracted into query parameters, so that queries which only differ by those constant values share the same JPQL
+ * statement and only require the constants binding.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class JPQLQueryCache implements JpqlCacheStatistics {
+
+	private final static Map<EntityManagerFactory, JPQLQueryCache> CACHES = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Operations whose scalar constant operands are abstracted into query parameters
+	 */
+	private final static Set<Ops> PARAMETRIZABLE_OPERATIONS = EnumSet.of(Ops.EQ, Ops.NE, Ops.LT, Ops.GT, Ops.LOE,
+			Ops.GOE, Ops.BETWEEN);
+
+	private final int maximumSize;
+
+	private final ConcurrentHashMap<QueryShape, CompiledJPQL> statements = new ConcurrentHashMap<>();
+
+	private final ConcurrentLinkedQueue<QueryShape> insertionOrder = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor.
+	 * @param maximumSize The cache maximum size, <code>0</code> to disable the cache
+	 */
+	public JPQLQueryCache(int maximumSize) {
+		super();
+		this.maximumSize = Math.max(0, maximumSize);
+	}
+
+	/**
+	 * Get the JPQL cache bound to given {@link EntityManagerFactory}.
+	 * <p>
+	 * The cache maximum size is obtained from the {@link JpqlCacheStatistics#MAXIMUM_SIZE_PROPERTY} system property, if
+	 * available.
+	 * </p>
+	 * @param entityManagerFactory The EntityManagerFactory (not null)
+	 * @return The JPQL cache
+	 */
+	public static JPQLQueryCache get(EntityManagerFactory entityManagerFactory) {
+		return CACHES.computeIfAbsent(entityManagerFactory,
+				emf -> new JPQLQueryCache(Integer.getInteger(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE)));
+	}
+
+	/**
+	 * Get the {@link CompiledJPQL} which corresponds to given query shape, using the <code>serializer</code> function
+	 * to serialize the JPQL statement if not available in cache.
+	 * @param shape Query shape
+	 * @param serializer JPQL serializer
+	 * @return The compiled JPQL statement
+	 */
+	public CompiledJPQL get(QueryShape shape, Supplier<CompiledJPQL> serializer) {
+		if (maximumSize == 0) {
+			misses.increment();
+			return serializer.get();
+		}
+		CompiledJPQL compiled = statements.get(shape);
+		if (compiled != null) {
+			hits.increment();
+			return compiled;
+		}
+		misses.increment();
+		compiled = serializer.get();
+		if (statements.putIfAbsent(shape, compiled) == null) {
+			insertionOrder.offer(shape);
+			// check bounds
+			while (statements.size() > maximumSize) {
+				final QueryShape eldest = insertionOrder.poll();
+				if (eldest == null) {
+					break;
+				}
+				if (statements.remove(eldest) != null) {
+					evictions.increment();
+				}
+			}
+		}
+		return compiled;
+	}
+
+	/**
+	 * Clear the cache.
+	 */
+	public void clear() {
+		statements.clear();
+		insertionOrder.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics#getHitCount()
+	 */
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics#getMissCount()
+	 */
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics#getEvictionCount()
+	 */
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics#getSize()
+	 */
+	@Override
+	public int getSize() {
+		return statements.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.JpqlCacheStatistics#getMaximumSize()
+	 */
+	@Override
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "JPQLQueryCache [size=" + getSize() + ", maximumSize=" + maximumSize + ", hits=" + getHitCount()
+				+ ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	/**
+	 * Checks whether given constant value can be bound as a parameter in place of a constant compared with or
+	 * assigned to given operand, without changing the serialized statement semantics. Numeric constants must exactly
+	 * match the operand type, since the JPQL serializer normalizes the numeric constants types.
+	 * @param operand The operand
+	 * @param value Constant value
+	 * @return <code>true</code> if the constant value can be abstracted into a parameter
+	 */
+	static boolean isParametrizable(Expression<?> operand, Object value) {
+		if (value == null || value instanceof Collection || value.getClass().isArray()) {
+			return false;
+		}
+		final Class<?> operandType = MethodType.methodType(operand.getType()).wrap().returnType();
+		if (value instanceof Number) {
+			return operandType == value.getClass();
+		}
+		return operandType.isInstance(value);
+	}
+
+	/**
+	 * Create the {@link Param} which abstracts given constant value, and collect the value by parameter.
+	 * @param name The parameter name
+	 * @param value The constant value
+	 * @param params The parameter values
+	 * @return The parameter
+	 */
+	static Param<?> createConstantSlot(String name, Object value, Map<ParamExpression<?>, Object> params) {
+		final Param<?> slot = new Param<>(value.getClass(), name);
+		params.put(slot, value);
+		return slot;
+	}
+
+	/**
+	 * A serialized JPQL statement, with the constants list to bind to the statement positional parameters. The
+	 * abstracted constants are represented by {@link Param} placeholders.
+	 */
+	public static final class CompiledJPQL {
+
+		private final String queryString;
+
+		private final List<Object> constants;
+
+		public CompiledJPQL(String queryString, List<Object> constants) {
+			super();
+			this.queryString = queryString;
+			this.constants = Collections.unmodifiableList(new ArrayList<>(constants));
+		}
+
+		/**
+		 * Get the JPQL statement.
+		 * @return the JPQL statement
+		 */
+		public String getQueryString() {
+			return queryString;
+		}
+
+		/**
+		 * Get the statement constants, in parameter position order.
+		 * @return the statement constants
+		 */
+		public List<Object> getConstants() {
+			return constants;
+		}
+
+	}
+
+	/**
+	 * The structural fingerprint of a query, in which the scalar comparison constants of the <em>where</em> clause are
+	 * replaced by positional {@link Param} placeholders.
+	 */
+	public static final class QueryShape {
+
+		private final JPQLTemplates templates;
+		private final boolean forCount;
+		private final boolean distinct;
+		private final Expression<?> projection;
+		private final List<JoinExpression> joins;
+		private final Predicate where;
+		private final List<Expression<?>> groupBy;
+		private final Predicate having;
+		private final List<OrderSpecifier<?>> orderBy;
+		private final Set<QueryFlag> flags;
+
+		private final QueryMetadata metadata;
+		private final Map<ParamExpression<?>, Object> bindings;
+
+		private final int hashCode;
+
+		private QueryShape(JPQLTemplates templates, QueryMetadata metadata, boolean forCount, Predicate where,
+				Map<ParamExpression<?>, Object> bindings) {
+			super();
+			this.templates = templates;
+			this.forCount = forCount;
+			this.distinct = metadata.isDistinct();
+			this.projection = metadata.getProjection();
+			this.joins = new ArrayList<>(metadata.getJoins());
+			this.where = where;
+			this.groupBy = new ArrayList<>(metadata.getGroupBy());
+			this.having = metadata.getHaving();
+			this.orderBy = new ArrayList<>(metadata.getOrderBy());
+			this.flags = new HashSet<>(metadata.getFlags());
+			this.bindings = bindings;
+			if (bindings.isEmpty()) {
+				this.metadata = metadata;
+			} else {
+				this.metadata = metadata.clone();
+				this.metadata.clearWhere();
+				this.metadata.addWhere(where);
+			}
+			this.hashCode = Objects.hash(templates, forCount, distinct, projection, joins, where, groupBy, having,
+					orderBy, flags);
+		}
+
+		/**
+		 * Build the shape of the query described by given metadata.
+		 * @param templates JPQL templates
+		 * @param metadata Query metadata
+		 * @param forCount Whether the query is a count query
+		 * @return The query shape
+		 */
+		public static QueryShape of(JPQLTemplates templates, QueryMetadata metadata, boolean forCount) {
+			final Map<ParamExpression<?>, Object> bindings = new HashMap<>(4);
+			final Predicate where = metadata.getWhere();
+			final Predicate shapeWhere = (where != null) ? (Predicate) where.accept(ConstantSlotVisitor.INSTANCE, bindings)
+					: null;
+			return new QueryShape(templates, metadata, forCount, shapeWhere, bindings);
+		}
+
+		/**
+		 * Get the metadata to serialize, in which the abstracted constants are replaced by {@link Param}s.
+		 * @return the metadata to serialize
+		 */
+		public QueryMetadata getMetadata() {
+			return metadata;
+		}
+
+		/**
+		 * Get the parameters to bind to the statement, including both the abstracted constants and the given query
+		 * parameters.
+		 * @param params The query parameters
+		 * @return The parameters to bind
+		 */
+		public Map<ParamExpression<?>, Object> getParams(Map<ParamExpression<?>, Object> params) {
+			if (bindings.isEmpty()) {
+				return params;
+			}
+			if (params == null || params.isEmpty()) {
+				return bindings;
+			}
+			final Map<ParamExpression<?>, Object> merged = new HashMap<>(params);
+			merged.putAll(bindings);
+			return merged;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof QueryShape)) {
+				return false;
+			}
+			final QueryShape other = (QueryShape) obj;
+			return hashCode == other.hashCode && forCount == other.forCount && distinct == other.distinct
+					&& templates == other.templates && Objects.equals(projection, other.projection)
+					&& joins.equals(other.joins) && Objects.equals(where, other.where)
+					&& groupBy.equals(other.groupBy) && Objects.equals(having, other.having)
+					&& orderBy.equals(other.orderBy) && Objects.equals(flags, other.flags);
+		}
+
+	}
+
+	/**
+	 * Visitor which replaces the scalar constant operands of the {@link #PARAMETRIZABLE_OPERATIONS} with
+	 * {@link Param}s, collecting the constant values by parameter.
+	 */
+	private enum ConstantSlotVisitor implements Visitor<Expression<?>, Map<ParamExpression<?>, Object>> {
+
+		INSTANCE;
+
+		private static final String SLOT_NAME_PREFIX = "__holon_constant_";
+
+		@Override
+		public Expression<?> visit(Constant<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+		@Override
+		public Expression<?> visit(FactoryExpression<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+		@Override
+		public Expression<?> visit(Operation<?> expr, Map<ParamExpression<?>, Object> context) {
+			final Operator operator = expr.getOperator();
+			final List<Expression<?>> args = expr.getArgs();
+			final Expression<?> operand = (PARAMETRIZABLE_OPERATIONS.contains(operator) && !args.isEmpty()
+					&& !(args.get(0) instanceof Constant)) ? args.get(0) : null;
+			final Expression<?>[] replaced = new Expression<?>[args.size()];
+			boolean changed = false;
+			for (int i = 0; i < replaced.length; i++) {
+				final Expression<?> arg = args.get(i);
+				if (i > 0 && operand != null && arg instanceof Constant
+						&& isParametrizable(operand, ((Constant<?>) arg).getConstant())) {
+					replaced[i] = createConstantSlot(SLOT_NAME_PREFIX + context.size(),
+							((Constant<?>) arg).getConstant(), context);
+				} else {
+					replaced[i] = arg.accept(this, context);
+				}
+				changed = changed || (replaced[i] != arg);
+			}
+			if (!changed) {
+				return expr;
+			}
+			if (expr instanceof Predicate) {
+				return ExpressionUtils.predicate(operator, replaced);
+			}
+			return ExpressionUtils.operation(expr.getType(), operator, replaced);
+		}
+
+		@Override
+		public Expression<?> visit(ParamExpression<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+		@Override
+		public Expression<?> visit(Path<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+		@Override
+		public Expression<?> visit(SubQueryExpression<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+		@Override
+		public Expression<?> visit(TemplateExpression<?> expr, Map<ParamExpression<?>, Object> context) {
+			return expr;
+		}
+
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.FactoryExpressionUtils;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.dsl.Expressions;
+
+/**
+ * Extracts the sort key values of a raw query result row, i.e. a row not yet transformed by the query projection, to
+ * be used for keyset pagination.
+ * <p>
+ * The sort key values can be extracted when each sort expression is a projected expression, or when the query
+ * projects the root entity and each sort expression is an attribute of the root entity.
+ * </p>
+ * <p>
+ * Keyset pagination skips the rows which share the sort key values of the last row of a page, so it is only used when
+ * the last sort expression is the identifier of the root entity, which makes the sort key values unique. See
+ * {@link #appendIdentifierOrder(QueryMetadata, Metamodel)}.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public final class KeysetExtractor {
+
+	private final ValueReader[] readers;
+
+	private KeysetExtractor(ValueReader[] readers) {
+		super();
+		this.readers = readers;
+	}
+
+	/**
+	 * Create a {@link KeysetExtractor} for the query described by given metadata.
+	 * @param metadata Query metadata
+	 * @param metamodel JPA metamodel
+	 * @return The extractor, <code>null</code> if the query has no sort, the sort key values are not unique or they
+	 *         cannot be extracted from the query result rows
+	 */
+	public static KeysetExtractor create(QueryMetadata metadata, Metamodel metamodel) {
+		final List<OrderSpecifier<?>> orderBy = metadata.getOrderBy();
+		if (orderBy.isEmpty()) {
+			return null;
+		}
+		final Expression<?> root = metadata.getJoins().get(0).getTarget();
+		if (!isIdentifier(root, orderBy.get(orderBy.size() - 1).getTarget(), metamodel)) {
+			return null;
+		}
+		final Expression<?> projection = (metadata.getProjection() != null) ? metadata.getProjection() : root;
+		// nested factory expressions are serialized as flat columns
+		final List<Expression<?>> columns = (projection instanceof FactoryExpression)
+				? FactoryExpressionUtils.wrap((FactoryExpression<?>) projection).getArgs()
+				: Collections.singletonList(projection);
+		final boolean singleColumn = columns.size() == 1;
+
+		final ValueReader[] readers = new ValueReader[orderBy.size()];
+		for (int i = 0; i < readers.length; i++) {
+			final Expression<?> target = orderBy.get(i).getTarget();
+			final int index = columns.indexOf(target);
+			if (index >= 0) {
+				readers[i] = singleColumn ? row -> row : row -> ((Object[]) row)[index];
+			} else if (singleColumn) {
+				readers[i] = getAttributeReader(columns.get(0), target, metamodel);
+			}
+			if (readers[i] == null) {
+				return null;
+			}
+		}
+		return new KeysetExtractor(readers);
+	}
+
+	/**
+	 * Append the root entity identifier to the sort of the query described by given metadata, as a tiebreaker which
+	 * makes the sort key values unique, unless the sort already ends with it. Grouped and distinct queries, and the
+	 * queries whose root entity has not a single identifier attribute, are left unchanged.
+	 * @param metadata Query metadata
+	 * @param metamodel JPA metamodel
+	 * @return The query metadata
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static QueryMetadata appendIdentifierOrder(QueryMetadata metadata, Metamodel metamodel) {
+		if (!metadata.getGroupBy().isEmpty() || metadata.isDistinct()) {
+			return metadata;
+		}
+		final List<OrderSpecifier<?>> orderBy = metadata.getOrderBy();
+		final Expression<?> root = metadata.getJoins().get(0).getTarget();
+		if (!orderBy.isEmpty() && isIdentifier(root, orderBy.get(orderBy.size() - 1).getTarget(), metamodel)) {
+			return metadata;
+		}
+		final SingularAttribute<?, ?> id = getIdentifier(root, metamodel);
+		if (id != null) {
+			final Class<?> idType = MethodType.methodType(id.getJavaType()).wrap().returnType();
+			metadata.addOrderBy(new OrderSpecifier(Order.ASC, Expressions.path(idType, (Path<?>) root, id.getName())));
+		}
+		return metadata;
+	}
+
+	/**
+	 * Extract the sort key values of given row.
+	 * @param row The raw query result row
+	 * @return The sort key values, <code>null</code> if any sort key value is <code>null</code>
+	 */
+	public Object[] extract(Object row) {
+		final Object[] values = new Object[readers.length];
+		for (int i = 0; i < readers.length; i++) {
+			values[i] = readers[i].read(row);
+			if (values[i] == null) {
+				return null;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Checks whether given expression is the identifier attribute of given root entity.
+	 * @param root The root entity
+	 * @param target The expression to check
+	 * @param metamodel JPA metamodel
+	 * @return <code>true</code> if the expression is the single identifier attribute of the root entity
+	 */
+	private static boolean isIdentifier(Expression<?> root, Expression<?> target, Metamodel metamodel) {
+		if (!(target instanceof Path) || !root.equals(((Path<?>) target).getMetadata().getParent())) {
+			return false;
+		}
+		final SingularAttribute<?, ?> id = getIdentifier(root, metamodel);
+		return id != null && id.getName().equals(((Path<?>) target).getMetadata().getName());
+	}
+
+	/**
+	 * Get the single identifier attribute of given root entity.
+	 * @param root The root entity
+	 * @param metamodel JPA metamodel
+	 * @return The identifier attribute, <code>null</code> if the root is not an entity or it has not a single
+	 *         identifier attribute
+	 */
+	private static SingularAttribute<?, ?> getIdentifier(Expression<?> root, Metamodel metamodel) {
+		if (!(root instanceof EntityPath) || ((Path<?>) root).getMetadata().getParent() != null) {
+			return null;
+		}
+		try {
+			final EntityType<?> entityType = metamodel.entity(root.getType());
+			if (entityType.hasSingleIdAttribute()) {
+				for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+					if (attribute.isId()) {
+						return attribute;
+					}
+				}
+			}
+		} catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+			// not an entity
+		}
+		return null;
+	}
+
+	private static ValueReader getAttributeReader(Expression<?> entity, Expression<?> target, Metamodel metamodel) {
+		if (!(entity instanceof EntityPath) || ((Path<?>) entity).getMetadata().getParent() != null
+				|| !(target instanceof Path) || !entity.equals(((Path<?>) target).getMetadata().getParent())) {
+			return null;
+		}
+		final Member member;
+		try {
+			final Attribute<?, ?> attribute = metamodel.entity(entity.getType())
+					.getAttribute(((Path<?>) target).getMetadata().getName());
+			if (attribute.isAssociation() || attribute.isCollection()) {
+				return null;
+			}
+			member = attribute.getJavaMember();
+		} catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+			return null;
+		}
+		if (member instanceof Field) {
+			final Field field = (Field) member;
+			makeAccessible(field);
+			return row -> {
+				try {
+					return field.get(row);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException("Failed to read sort key value [" + field.getName() + "]", e);
+				}
+			};
+		}
+		if (member instanceof Method) {
+			final Method method = (Method) member;
+			makeAccessible(method);
+			return row -> {
+				try {
+					return method.invoke(row);
+				} catch (Exception e) {
+					throw new IllegalStateException("Failed to read sort key value [" + method.getName() + "]", e);
+				}
+			};
+		}
+		return null;
+	}
+
+	private static void makeAccessible(AccessibleObject member) {
+		member.setAccessible(true);
+	}
+
+	@FunctionalInterface
+	private interface ValueReader {
+
+		Object read(Object row);
+
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Collects single column numeric query results into primitive arrays, growing the arrays as the rows are read, so
+ * that no intermediate list of boxed values is created.
+ *
+ * @since 5.7.1
+ */
+public final class NumericResults {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Maximum initial capacity, to avoid large allocations for large but not reached limits
+	 */
+	private static final int MAXIMUM_INITIAL_CAPACITY = 1 << 16;
+
+	private NumericResults() {
+	}
+
+	/**
+	 * Read given results as <code>long</code> values.
+	 * @param results The results iterator
+	 * @param expectedSize The expected results count, if known, or a negative value
+	 * @return The results array
+	 * @throws IllegalStateException If a result is <code>null</code> or it is not a number
+	 */
+	public static long[] toLongs(Iterator<?> results, long expectedSize) {
+		long[] values = new long[getInitialCapacity(expectedSize)];
+		int size = 0;
+		while (results.hasNext()) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, grow(size));
+			}
+			values[size++] = getNumber(results.next(), size).longValue();
+		}
+		return (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Read given results as <code>int</code> values.
+	 * @param results The results iterator
+	 * @param expectedSize The expected results count, if known, or a negative value
+	 * @return The results array
+	 * @throws IllegalStateException If a result is <code>null</code> or it is not a number
+	 */
+	public static int[] toInts(Iterator<?> results, long expectedSize) {
+		int[] values = new int[getInitialCapacity(expectedSize)];
+		int size = 0;
+		while (results.hasNext()) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, grow(size));
+			}
+			values[size++] = getNumber(results.next(), size).intValue();
+		}
+		return (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Read given results as <code>double</code> values.
+	 * @param results The results iterator
+	 * @param expectedSize The expected results count, if known, or a negative value
+	 * @return The results array
+	 * @throws IllegalStateException If a result is <code>null</code> or it is not a number
+	 */
+	public static double[] toDoubles(Iterator<?> results, long expectedSize) {
+		double[] values = new double[getInitialCapacity(expectedSize)];
+		int size = 0;
+		while (results.hasNext()) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, grow(size));
+			}
+			values[size++] = getNumber(results.next(), size).doubleValue();
+		}
+		return (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+
+	private static Number getNumber(Object value, int row) {
+		if (value instanceof Number) {
+			return (Number) value;
+		}
+		if (value == null) {
+			throw new IllegalStateException("Null value at row [" + row + "]: only not null numeric values are supported");
+		}
+		throw new IllegalStateException("Value at row [" + row + "] of type [" + value.getClass().getName()
+				+ "] is not a number: the query must project a single numeric expression");
+	}
+
+	private static int getInitialCapacity(long expectedSize) {
+		return (expectedSize < 0) ? DEFAULT_CAPACITY : (int) Math.min(expectedSize, MAXIMUM_INITIAL_CAPACITY);
+	}
+
+	private static int grow(int size) {
+		final int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+		if (capacity < 0) {
+			throw new OutOfMemoryError("Results count exceeds the maximum array size");
+		}
+		return capacity;
+	}
+
+}
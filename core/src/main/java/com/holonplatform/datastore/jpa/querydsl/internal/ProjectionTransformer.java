@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.Vector;
+
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.QBean;
+import com.querydsl.core.types.QMap;
+
+/**
+ * Transforms the JPA query result rows using a {@link FactoryExpression} projection, when the projection cannot be
+ * natively handled by the ORM platform.
+ * <p>
+ * The result lists created by the ORM platform for each query execution are transformed in place, so no additional
+ * list is allocated. Any other list is exposed through a lazy, read-only view which transforms each row at first
+ * access.
+ * </p>
+ * <p>
+ * Single column rows are passed to the projection using a one element arguments array, which is reused for the
+ * projections known not to retain the arguments array.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public final class ProjectionTransformer {
+
+	private ProjectionTransformer() {
+	}
+
+	/**
+	 * Transform given query result rows using given projection.
+	 * @param rows The query result rows
+	 * @param projection The projection (not null)
+	 * @return The transformed results, which may be the same <code>rows</code> list instance
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<?> transform(List<?> rows, FactoryExpression<?> projection) {
+		if (rows == null || rows.isEmpty()) {
+			return rows;
+		}
+		if (rows instanceof ArrayList || rows instanceof Vector) {
+			// a list created for this execution: replace the rows in place
+			final Object[] arguments = canReuseArguments(projection) ? new Object[1] : null;
+			final ListIterator<Object> iterator = ((List<Object>) rows).listIterator();
+			while (iterator.hasNext()) {
+				iterator.set(newInstance(projection, iterator.next(), arguments));
+			}
+			return rows;
+		}
+		return new TransformingList(rows, projection);
+	}
+
+	/**
+	 * Transform given query result row using given projection.
+	 * @param projection The projection (not null)
+	 * @param row The query result row
+	 * @return The transformed row, <code>null</code> if the row is <code>null</code>
+	 */
+	public static Object newInstance(FactoryExpression<?> projection, Object row) {
+		return newInstance(projection, row, null);
+	}
+
+	/**
+	 * Transform given query result row using given projection.
+	 * @param projection The projection
+	 * @param row The query result row
+	 * @param arguments Optional one element array to reuse for single column rows
+	 * @return The transformed row, <code>null</code> if the row is <code>null</code>
+	 */
+	private static Object newInstance(FactoryExpression<?> projection, Object row, Object[] arguments) {
+		if (row == null) {
+			return null;
+		}
+		if (row.getClass().isArray()) {
+			return projection.newInstance((Object[]) row);
+		}
+		if (arguments != null) {
+			arguments[0] = row;
+			return projection.newInstance(arguments);
+		}
+		return projection.newInstance(row);
+	}
+
+	/**
+	 * Checks whether given projection uses the arguments array only during the {@link FactoryExpression#newInstance}
+	 * invocation, so the same arguments array can be reused for multiple rows.
+	 * @param projection The projection
+	 * @return <code>true</code> if the arguments array can be reused
+	 */
+	private static boolean canReuseArguments(FactoryExpression<?> projection) {
+		return projection instanceof QBean || projection instanceof QMap;
+	}
+
+	/**
+	 * A read-only list view which transforms each row at first access.
+	 */
+	private static final class TransformingList extends AbstractList<Object> implements RandomAccess {
+
+		private static final Object NOT_TRANSFORMED = new Object();
+
+		private final List<?> rows;
+		private final FactoryExpression<?> projection;
+		private final Object[] transformed;
+
+		TransformingList(List<?> rows, FactoryExpression<?> projection) {
+			super();
+			this.rows = (rows instanceof RandomAccess) ? rows : new ArrayList<>(rows);
+			this.projection = projection;
+			this.transformed = new Object[rows.size()];
+			Arrays.fill(transformed, NOT_TRANSFORMED);
+		}
+
+		@Override
+		public Object get(int index) {
+			Object value = transformed[index];
+			if (value == NOT_TRANSFORMED) {
+				value = newInstance(projection, rows.get(index), null);
+				transformed[index] = value;
+			}
+			return value;
+		}
+
+		@Override
+		public int size() {
+			return transformed.length;
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the default {@link Executor} used to execute queries asynchronously: a virtual thread per task executor
+ * when supported by the JVM, a cached daemon threads pool otherwise.
+ *
+ * @since 5.7.1
+ */
+public final class QueryExecutors {
+
+	private QueryExecutors() {
+	}
+
+	/**
+	 * Get the default query executor.
+	 * @return The default query executor
+	 */
+	public static Executor getDefaultExecutor() {
+		return DefaultExecutorHolder.EXECUTOR;
+	}
+
+	/**
+	 * Lazy holder of the default executor.
+	 */
+	private static final class DefaultExecutorHolder {
+
+		static final Executor EXECUTOR = createExecutor();
+
+		private static Executor createExecutor() {
+			try {
+				final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (Executor) method.invoke(null);
+			} catch (@SuppressWarnings("unused") Exception e) {
+				final AtomicInteger counter = new AtomicInteger();
+				return Executors.newCachedThreadPool(runnable -> {
+					final Thread thread = new Thread(runnable, "holon-jpa-querydsl-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.core.types.Visitor;
+
+/**
+ * A bounded cache of query results, with time based expiration and invalidation by entity type.
+ * <p>
+ * Each cached result is associated to the types referenced by the query which produced it, and it is invalidated when
+ * an update or delete clause is executed on any of those types (or any type in the same hierarchy) through
+ * {@link #update(EntityManager, Class, Supplier)}. While an update or delete clause is pending within an active
+ * transaction, i.e. until the {@link EntityManager} which executed it is closed, no result which refers to the updated
+ * types is cached, so that uncommitted changes are never visible through the cache.
+ * </p>
+ * <p>
+ * The cache never shares a mutable result: a result is cached only when it is made of immutable values (strings,
+ * numbers, booleans, enumerations, <code>java.time</code> values and tuples of them) or of values which can be copied
+ * (<code>java.util.Date</code>s and arrays). The cache stores a copy of the loaded result and each cache hit obtains a
+ * new copy of it, so its cost is linear in the number of cached rows. Any other result, for example entities or beans,
+ * is returned to the caller without being cached.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+public class QueryResultCache implements ResultCacheStatistics {
+
+	private final static Map<EntityManagerFactory, QueryResultCache> CACHES = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Marker for the values which cannot be cached
+	 */
+	private static final Object NOT_CACHEABLE = new Object();
+
+	/**
+	 * Cached query operation types
+	 */
+	public enum CachedOperation {
+
+		/**
+		 * Results list
+		 */
+		LIST,
+
+		/**
+		 * Unique result
+		 */
+		UNIQUE,
+
+		/**
+		 * Results count
+		 */
+		COUNT;
+
+	}
+
+	private final int maximumSize;
+	private final long maximumWeight;
+
+	/**
+	 * Cached results, in access order. Guarded by this cache instance lock.
+	 */
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Types updated by the pending update and delete clauses, by EntityManager. Guarded by this cache instance lock.
+	 */
+	private final Map<EntityManager, Set<Class<?>>> pendingUpdates = new WeakHashMap<>();
+
+	private long weight;
+
+	/**
+	 * Incremented at each invalidation, to discard the results loaded concurrently with an invalidation
+	 */
+	private long epoch;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Constructor.
+	 * @param maximumSize The cache maximum number of entries, <code>0</code> to disable the cache
+	 * @param maximumWeight The cache maximum total weight, i.e. the maximum number of cached rows
+	 */
+	public QueryResultCache(int maximumSize, long maximumWeight) {
+		super();
+		this.maximumSize = Math.max(0, maximumSize);
+		this.maximumWeight = Math.max(0L, maximumWeight);
+	}
+
+	/**
+	 * Get the result cache bound to given {@link EntityManagerFactory}.
+	 * <p>
+	 * The cache bounds are obtained from the {@link ResultCacheStatistics#MAXIMUM_SIZE_PROPERTY} and
+	 * {@link ResultCacheStatistics#MAXIMUM_WEIGHT_PROPERTY} system properties, if available.
+	 * </p>
+	 * @param entityManagerFactory The EntityManagerFactory (not null)
+	 * @return The result cache
+	 */
+	public static QueryResultCache get(EntityManagerFactory entityManagerFactory) {
+		return CACHES.computeIfAbsent(entityManagerFactory,
+				emf -> new QueryResultCache(Integer.getInteger(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE),
+						Long.getLong(MAXIMUM_WEIGHT_PROPERTY, DEFAULT_MAXIMUM_WEIGHT)));
+	}
+
+	/**
+	 * Get the cached result bound to given key, using the <code>loader</code> function to obtain the result if not
+	 * available in cache or expired.
+	 * <p>
+	 * A copy of the cached result is returned, if available. The loaded result is cached only if it is made of
+	 * immutable or copyable values.
+	 * </p>
+	 * @param <R> Result type
+	 * @param key The result key
+	 * @param types The types referenced by the query
+	 * @param ttl The result time to live
+	 * @param loader The result loader
+	 * @return The result
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R get(Object key, Set<Class<?>> types, Duration ttl, Supplier<R> loader) {
+		final long startEpoch;
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expires - System.nanoTime() > 0) {
+					hits.increment();
+					return (R) copyResult(entry.value);
+				}
+				remove(key);
+			}
+			startEpoch = epoch;
+		}
+		misses.increment();
+
+		final long loaded = System.nanoTime();
+		final R value = loader.get();
+		final Object snapshot = snapshot(value);
+		if (snapshot == NOT_CACHEABLE) {
+			return value;
+		}
+		final long valueWeight = (value instanceof Collection) ? Math.max(1, ((Collection<?>) value).size()) : 1;
+		synchronized (this) {
+			if (epoch == startEpoch && valueWeight <= maximumWeight && maximumSize > 0 && !isPendingUpdate(types)) {
+				remove(key);
+				entries.put(key, new Entry(snapshot, loaded + ttl.toNanos(), valueWeight, types));
+				weight += valueWeight;
+				// check bounds
+				final Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+				while ((entries.size() > maximumSize || weight > maximumWeight) && eldest.hasNext()) {
+					weight -= eldest.next().getValue().weight;
+					eldest.remove();
+					evictions.increment();
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Execute given update or delete operation on given entity type, invalidating the cached results which refer to
+	 * that type.
+	 * @param <R> Operation result type
+	 * @param entityManager The EntityManager used to execute the operation
+	 * @param entityType The updated entity type
+	 * @param operation The operation to execute
+	 * @return The operation result
+	 */
+	public <R> R update(EntityManager entityManager, Class<?> entityType, Supplier<R> operation) {
+		if (entityManager.isJoinedToTransaction()) {
+			// no result is cached for the updated type until the transaction EntityManager is closed
+			final EntityManager target = getTransactionEntityManager(entityManager);
+			synchronized (this) {
+				pendingUpdates.computeIfAbsent(target, em -> new HashSet<>()).add(entityType);
+			}
+		}
+		try {
+			return operation.get();
+		} finally {
+			invalidate(entityType);
+		}
+	}
+
+	/**
+	 * Invalidate the cached results which refer to given type.
+	 * @param type The type to invalidate
+	 */
+	public synchronized void invalidate(Class<?> type) {
+		epoch++;
+		final Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			final Entry entry = iterator.next();
+			if (isRelated(entry.types, type)) {
+				weight -= entry.weight;
+				iterator.remove();
+				invalidations.increment();
+			}
+		}
+	}
+
+	/**
+	 * Clear the cache.
+	 */
+	public synchronized void clear() {
+		epoch++;
+		entries.clear();
+		weight = 0;
+	}
+
+	private void remove(Object key) {
+		final Entry removed = entries.remove(key);
+		if (removed != null) {
+			weight -= removed.weight;
+		}
+	}
+
+	private boolean isPendingUpdate(Set<Class<?>> types) {
+		final Iterator<Map.Entry<EntityManager, Set<Class<?>>>> iterator = pendingUpdates.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<EntityManager, Set<Class<?>>> pending = iterator.next();
+			if (!pending.getKey().isOpen()) {
+				iterator.remove();
+			} else {
+				for (Class<?> type : pending.getValue()) {
+					if (isRelated(types, type)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isRelated(Set<Class<?>> types, Class<?> type) {
+		for (Class<?> t : types) {
+			if (t.isAssignableFrom(type) || type.isAssignableFrom(t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the actual EntityManager bound to the current transaction, which may differ from the given one when a shared
+	 * EntityManager proxy is used.
+	 * @param entityManager The EntityManager
+	 * @return The transaction EntityManager
+	 */
+	private static EntityManager getTransactionEntityManager(EntityManager entityManager) {
+		try {
+			final Object delegate = entityManager.getDelegate();
+			return (delegate instanceof EntityManager) ? (EntityManager) delegate : entityManager;
+		} catch (@SuppressWarnings("unused") RuntimeException e) {
+			return entityManager;
+		}
+	}
+
+	/**
+	 * Get a copy of given loaded result suitable to be cached.
+	 * @param result The loaded result
+	 * @return The result copy, or {@link #NOT_CACHEABLE} if the result cannot be cached
+	 */
+	private static Object snapshot(Object result) {
+		if (result instanceof List) {
+			final List<Object> rows = new ArrayList<>(((List<?>) result).size());
+			for (Object row : (List<?>) result) {
+				final Object copy = copyValue(row);
+				if (copy == NOT_CACHEABLE) {
+					return NOT_CACHEABLE;
+				}
+				rows.add(copy);
+			}
+			return rows;
+		}
+		return copyValue(result);
+	}
+
+	/**
+	 * Get a copy of given cached result, to be returned to a cache hit.
+	 * @param result The cached result
+	 * @return The result copy
+	 */
+	private static Object copyResult(Object result) {
+		if (result instanceof List) {
+			final List<Object> rows = new ArrayList<>(((List<?>) result).size());
+			for (Object row : (List<?>) result) {
+				rows.add(copyValue(row));
+			}
+			return rows;
+		}
+		return copyValue(result);
+	}
+
+	/**
+	 * Get a copy of given value, if the value is mutable.
+	 * @param value The value to copy
+	 * @return The value copy, the value itself if it is immutable, or {@link #NOT_CACHEABLE} if the value cannot be
+	 *         copied
+	 */
+	private static Object copyValue(Object value) {
+		if (value == null || isImmutable(value)) {
+			return value;
+		}
+		if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+		if (value instanceof Object[]) {
+			final Object[] copy = ((Object[]) value).clone();
+			for (int i = 0; i < copy.length; i++) {
+				final Object element = copyValue(copy[i]);
+				if (element == NOT_CACHEABLE) {
+					return NOT_CACHEABLE;
+				}
+				copy[i] = element;
+			}
+			return copy;
+		}
+		if (value instanceof Tuple) {
+			// tuples cannot be copied, so they can be shared only if they are made of immutable values
+			for (Object element : ((Tuple) value).toArray()) {
+				if (element != null && !isImmutable(element)) {
+					return NOT_CACHEABLE;
+				}
+			}
+			return value;
+		}
+		return NOT_CACHEABLE;
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value instanceof String || value instanceof Boolean || value instanceof Character
+				|| value instanceof Enum || value instanceof UUID || value.getClass().getName().startsWith("java.time.")
+				|| (value instanceof Number && value.getClass().getName().startsWith("java."));
+	}
+
+	/**
+	 * Get the types referenced by the query described by given metadata, including the types of the sub queries.
+	 * @param metadata The query metadata
+	 * @return The referenced types
+	 */
+	public static Set<Class<?>> getReferencedTypes(QueryMetadata metadata) {
+		final Set<Class<?>> types = new HashSet<>();
+		TypesCollector.INSTANCE.collect(metadata, types);
+		return Collections.unmodifiableSet(types);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getHitCount()
+	 */
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getMissCount()
+	 */
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getEvictionCount()
+	 */
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getInvalidationCount()
+	 */
+	@Override
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getSize()
+	 */
+	@Override
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics#getWeight()
+	 */
+	@Override
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "QueryResultCache [maximumSize=" + maximumSize + ", maximumWeight=" + maximumWeight + ", size="
+				+ getSize() + ", weight=" + getWeight() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + ", invalidations=" + getInvalidationCount() + "]";
+	}
+
+	private static final class Entry {
+
+		final Object value;
+		final long expires;
+		final long weight;
+		final Set<Class<?>> types;
+
+		Entry(Object value, long expires, long weight, Set<Class<?>> types) {
+			super();
+			this.value = value;
+			this.expires = expires;
+			this.weight = weight;
+			this.types = types;
+		}
+
+	}
+
+	/**
+	 * Visitor which collects the types of the paths referenced by an expression, including the parent paths types.
+	 */
+	private enum TypesCollector implements Visitor<Void, Set<Class<?>>> {
+
+		INSTANCE;
+
+		void collect(QueryMetadata metadata, Set<Class<?>> context) {
+			for (JoinExpression join : metadata.getJoins()) {
+				collect(join.getTarget(), context);
+				collect(join.getCondition(), context);
+			}
+			collect(metadata.getProjection(), context);
+			collect(metadata.getWhere(), context);
+			collect(metadata.getHaving(), context);
+			for (Expression<?> expression : metadata.getGroupBy()) {
+				collect(expression, context);
+			}
+			for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+				collect(order.getTarget(), context);
+			}
+		}
+
+		private void collect(Expression<?> expression, Set<Class<?>> context) {
+			if (expression != null) {
+				expression.accept(this, context);
+			}
+		}
+
+		@Override
+		public Void visit(Constant<?> expr, Set<Class<?>> context) {
+			return null;
+		}
+
+		@Override
+		public Void visit(FactoryExpression<?> expr, Set<Class<?>> context) {
+			for (Expression<?> arg : expr.getArgs()) {
+				arg.accept(this, context);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(Operation<?> expr, Set<Class<?>> context) {
+			for (Expression<?> arg : expr.getArgs()) {
+				arg.accept(this, context);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(ParamExpression<?> expr, Set<Class<?>> context) {
+			return null;
+		}
+
+		@Override
+		public Void visit(Path<?> expr, Set<Class<?>> context) {
+			Path<?> path = expr;
+			while (path != null) {
+				context.add(path.getType());
+				final PathMetadata pathMetadata = path.getMetadata();
+				path = (pathMetadata != null) ? pathMetadata.getParent() : null;
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(SubQueryExpression<?> expr, Set<Class<?>> context) {
+			collect(expr.getMetadata(), context);
+			return null;
+		}
+
+		@Override
+		public Void visit(TemplateExpression<?> expr, Set<Class<?>> context) {
+			for (Object arg : expr.getArgs()) {
+				if (arg instanceof Expression) {
+					((Expression<?>) arg).accept(this, context);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
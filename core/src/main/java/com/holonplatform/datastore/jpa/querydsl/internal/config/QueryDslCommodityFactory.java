@@ -15,10 +15,17 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.internal.config;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.persistence.EntityManagerFactory;
+
 import com.holonplatform.core.datastore.DatastoreCommodityContext.CommodityConfigurationException;
 import com.holonplatform.core.datastore.DatastoreCommodityFactory;
 import com.holonplatform.datastore.jpa.config.JpaDatastoreCommodityContext;
 import com.holonplatform.datastore.jpa.config.JpaDatastoreCommodityFactory;
+import com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp;
 import com.holonplatform.datastore.jpa.querydsl.QueryDsl;
 import com.holonplatform.datastore.jpa.querydsl.internal.DefaultQueryDslCommodity;
 
@@ -31,6 +38,12 @@ public class QueryDslCommodityFactory implements JpaDatastoreCommodityFactory<Qu
 
 	private static final long serialVersionUID = -5316993911354578279L;
 
+	/**
+	 * Persistence units for which the entity paths warm-up was already performed
+	 */
+	private static final Map<EntityManagerFactory, Boolean> WARMED_UP = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.holonplatform.core.datastore.DatastoreCommodityFactory#getCommodityType()
@@ -47,7 +60,13 @@ public class QueryDslCommodityFactory implements JpaDatastoreCommodityFactory<Qu
 	 */
 	@Override
 	public QueryDsl createCommodity(final JpaDatastoreCommodityContext context) throws CommodityConfigurationException {
-		return new DefaultQueryDslCommodity(context);
+		final QueryDsl commodity = new DefaultQueryDslCommodity(context);
+		// optional entity paths warm-up, performed once for each persistence unit
+		if (Boolean.getBoolean(EntityPathWarmUp.WARM_UP_PROPERTY)
+				&& WARMED_UP.putIfAbsent(context.getEntityManagerFactory(), Boolean.TRUE) == null) {
+			commodity.warmUpEntityPaths();
+		}
+		return commodity;
 	}
 
 }
@@ -23,7 +23,6 @@ import com.holonplatform.core.Expression;
 import com.holonplatform.core.Expression.InvalidExpressionException;
 import com.holonplatform.core.ExpressionResolver;
 import com.holonplatform.core.ExpressionResolver.ResolutionContext;
-import com.holonplatform.core.ExpressionResolverRegistry;
 import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.holonplatform.datastore.jpa.ORMPlatform;
 import com.holonplatform.datastore.jpa.context.JpaContext;
@@ -45,19 +44,29 @@ public class DefaultQueryDslResolutionContext implements QueryDslResolutionConte
 
 	private final QueryMetadata queryMetadata;
 
-	private final ExpressionResolverRegistry expressionResolverRegistry = ExpressionResolverRegistry.create();
+	private QueryDslExpressionResolverRegistry expressionResolverRegistry;
 
 	public DefaultQueryDslResolutionContext(JpaContext context, QueryMetadata queryMetadata) {
+		this(context, queryMetadata, QueryDslExpressionResolverRegistry.create(context.getExpressionResolvers()));
+	}
+
+	/**
+	 * Constructor using a shared expression resolvers registry.
+	 * @param context JPA context (not null)
+	 * @param queryMetadata Query metadata (not null)
+	 * @param expressionResolvers Expression resolvers registry (not null)
+	 */
+	public DefaultQueryDslResolutionContext(JpaContext context, QueryMetadata queryMetadata,
+			QueryDslExpressionResolverRegistry expressionResolvers) {
 		super();
 		ObjectUtils.argumentNotNull(context, "JpaContext must be not null");
 		ObjectUtils.argumentNotNull(queryMetadata, "QueryMetadata must be not null");
+		ObjectUtils.argumentNotNull(expressionResolvers, "Expression resolvers registry must be not null");
 
 		this.context = context;
 		this.queryMetadata = queryMetadata;
 		this.parent = null;
-
-		// inherit resolvers
-		addExpressionResolvers(context.getExpressionResolvers());
+		this.expressionResolverRegistry = expressionResolvers;
 	}
 
 	public DefaultQueryDslResolutionContext(QueryDslResolutionContext parent, QueryMetadata queryMetadata) {
@@ -69,8 +78,19 @@ public class DefaultQueryDslResolutionContext implements QueryDslResolutionConte
 		this.queryMetadata = queryMetadata;
 		this.parent = parent;
 
-		// inherit resolvers
-		addExpressionResolvers(context.getExpressionResolvers());
+		// inherit resolvers: the parent registry is immutable and can be shared, any resolver added to this context
+		// produces a new registry which does not affect the parent context
+		this.expressionResolverRegistry = (parent instanceof DefaultQueryDslResolutionContext)
+				? ((DefaultQueryDslResolutionContext) parent).getExpressionResolverRegistry()
+				: QueryDslExpressionResolverRegistry.create(parent.getExpressionResolvers());
+	}
+
+	/**
+	 * Get the current expression resolvers registry.
+	 * @return the expression resolvers registry
+	 */
+	protected QueryDslExpressionResolverRegistry getExpressionResolverRegistry() {
+		return expressionResolverRegistry;
 	}
 
 	/**
@@ -204,7 +224,7 @@ public class DefaultQueryDslResolutionContext implements QueryDslResolutionConte
 	@Override
 	public <E extends Expression, R extends Expression> void addExpressionResolver(
 			ExpressionResolver<E, R> expressionResolver) {
-		expressionResolverRegistry.addExpressionResolver(expressionResolver);
+		expressionResolverRegistry = expressionResolverRegistry.withExpressionResolver(expressionResolver);
 	}
 
 	/*
@@ -216,7 +236,7 @@ public class DefaultQueryDslResolutionContext implements QueryDslResolutionConte
 	@Override
 	public <E extends Expression, R extends Expression> void removeExpressionResolver(
 			ExpressionResolver<E, R> expressionResolver) {
-		expressionResolverRegistry.removeExpressionResolver(expressionResolver);
+		expressionResolverRegistry = expressionResolverRegistry.withoutExpressionResolver(expressionResolver);
 	}
 
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.internal.expressions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Priority;
+
+import com.holonplatform.core.Expression;
+import com.holonplatform.core.Expression.InvalidExpressionException;
+import com.holonplatform.core.ExpressionResolver;
+import com.holonplatform.core.ExpressionResolver.ResolutionContext;
+import com.holonplatform.core.internal.utils.ObjectUtils;
+
+/**
+ * An immutable {@link ExpressionResolver} registry, which keeps the registered resolvers sorted by priority.
+ * <p>
+ * The resolvers priority is obtained from the {@link Priority} annotation, if available: lower values means higher
+ * priority. Resolvers with the same priority are kept in registration order.
+ * </p>
+ * <p>
+ * Any registration change returns a new registry instance, so a registry can be safely shared among queries and
+ * resolution contexts.
+ * </p>
+ * <p>
+ * The resolvers which are applicable to a given expression class and resolution type are computed only once and then
+ * cached by the registry instance, so expression resolution does not scan the whole resolvers list for each
+ * expression.
+ * </p>
+ *
+ * @since 5.7.1
+ */
+@SuppressWarnings("rawtypes")
+public final class QueryDslExpressionResolverRegistry {
+
+	/**
+	 * Priority of the resolvers which are not annotated with {@link Priority}.
+	 */
+	public static final int DEFAULT_PRIORITY = Integer.MAX_VALUE / 2;
+
+	private static final ExpressionResolver[] NO_RESOLVERS = new ExpressionResolver[0];
+
+	/**
+	 * An empty registry
+	 */
+	public static final QueryDslExpressionResolverRegistry EMPTY = new QueryDslExpressionResolverRegistry(
+			NO_RESOLVERS);
+
+	private static final Comparator<ExpressionResolver> PRIORITY_COMPARATOR = Comparator
+			.comparingInt(QueryDslExpressionResolverRegistry::getPriority);
+
+	private final ExpressionResolver[] resolvers;
+
+	/**
+	 * Applicable resolvers by expression class and resolution type
+	 */
+	private final Map<Class<?>, Map<Class<?>, ExpressionResolver[]>> dispatch = new ConcurrentHashMap<>();
+
+	private QueryDslExpressionResolverRegistry(ExpressionResolver[] resolvers) {
+		super();
+		this.resolvers = resolvers;
+	}
+
+	/**
+	 * Create a new registry using given resolvers.
+	 * @param resolvers The resolvers to register
+	 * @return A new registry
+	 */
+	public static QueryDslExpressionResolverRegistry create(Iterable<? extends ExpressionResolver> resolvers) {
+		return EMPTY.withExpressionResolvers(resolvers);
+	}
+
+	/**
+	 * Get a registry which contains the resolvers of this registry and given resolver.
+	 * @param expressionResolver The resolver to add (not null)
+	 * @return A registry with given resolver, this registry if the resolver was already registered
+	 */
+	public QueryDslExpressionResolverRegistry withExpressionResolver(ExpressionResolver expressionResolver) {
+		ObjectUtils.argumentNotNull(expressionResolver, "ExpressionResolver to add must be not null");
+		return withExpressionResolvers(Collections.singleton(expressionResolver));
+	}
+
+	/**
+	 * Get a registry which contains the resolvers of this registry and given resolvers.
+	 * @param expressionResolvers The resolvers to add
+	 * @return A registry with given resolvers, this registry if all the resolvers were already registered
+	 */
+	public QueryDslExpressionResolverRegistry withExpressionResolvers(
+			Iterable<? extends ExpressionResolver> expressionResolvers) {
+		if (expressionResolvers == null) {
+			return this;
+		}
+		List<ExpressionResolver> merged = null;
+		for (ExpressionResolver resolver : expressionResolvers) {
+			if (resolver != null && !contains(resolver) && (merged == null || !merged.contains(resolver))) {
+				if (merged == null) {
+					merged = new ArrayList<>(resolvers.length + 8);
+					merged.addAll(Arrays.asList(resolvers));
+				}
+				merged.add(resolver);
+			}
+		}
+		if (merged == null) {
+			return this;
+		}
+		// stable sort: registration order is preserved for equal priorities
+		merged.sort(PRIORITY_COMPARATOR);
+		return new QueryDslExpressionResolverRegistry(merged.toArray(new ExpressionResolver[merged.size()]));
+	}
+
+	/**
+	 * Get a registry which contains the resolvers of this registry except given resolver.
+	 * @param expressionResolver The resolver to remove (not null)
+	 * @return A registry without given resolver, this registry if the resolver was not registered
+	 */
+	public QueryDslExpressionResolverRegistry withoutExpressionResolver(ExpressionResolver expressionResolver) {
+		ObjectUtils.argumentNotNull(expressionResolver, "ExpressionResolver to remove must be not null");
+		if (!contains(expressionResolver)) {
+			return this;
+		}
+		final List<ExpressionResolver> remaining = new ArrayList<>(resolvers.length);
+		for (ExpressionResolver resolver : resolvers) {
+			if (!resolver.equals(expressionResolver)) {
+				remaining.add(resolver);
+			}
+		}
+		return new QueryDslExpressionResolverRegistry(remaining.toArray(new ExpressionResolver[remaining.size()]));
+	}
+
+	/**
+	 * Get the number of registered resolvers.
+	 * @return the registered resolvers count
+	 */
+	public int size() {
+		return resolvers.length;
+	}
+
+	/**
+	 * Get the registered resolvers, sorted by priority.
+	 * @return the registered resolvers
+	 */
+	public Iterable<ExpressionResolver> getExpressionResolvers() {
+		return Collections.unmodifiableList(Arrays.asList(resolvers));
+	}
+
+	/**
+	 * Resolve given <code>expression</code> using the registered resolvers, in priority order, to obtain a
+	 * <code>resolutionType</code> type expression.
+	 * @param <E> Expression type
+	 * @param <R> Resolution type
+	 * @param expression Expression to resolve (not null)
+	 * @param resolutionType Expression type to obtain (not null)
+	 * @param context Resolution context
+	 * @return The resolved expression, empty if no resolver was able to resolve given expression
+	 * @throws InvalidExpressionException If an error occurred during resolution
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Expression, R extends Expression> Optional<R> resolve(E expression, Class<R> resolutionType,
+			ResolutionContext context) throws InvalidExpressionException {
+		ObjectUtils.argumentNotNull(expression, "Expression to resolve must be not null");
+		ObjectUtils.argumentNotNull(resolutionType, "Resolution type must be not null");
+		for (ExpressionResolver resolver : getResolvers(expression.getClass(), resolutionType)) {
+			Optional<R> resolved = resolver.resolve(expression, context);
+			if (resolved.isPresent()) {
+				return resolved;
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Get the resolvers which are applicable to given expression class and resolution type, in priority order.
+	 * @param expressionType Expression class
+	 * @param resolutionType Resolution type
+	 * @return The applicable resolvers, an empty array if none
+	 */
+	private ExpressionResolver[] getResolvers(Class<?> expressionType, Class<?> resolutionType) {
+		Map<Class<?>, ExpressionResolver[]> byResolutionType = dispatch.get(expressionType);
+		if (byResolutionType == null) {
+			byResolutionType = dispatch.computeIfAbsent(expressionType, t -> new ConcurrentHashMap<>(4));
+		}
+		ExpressionResolver[] applicable = byResolutionType.get(resolutionType);
+		if (applicable == null) {
+			applicable = lookup(expressionType, resolutionType);
+			byResolutionType.putIfAbsent(resolutionType, applicable);
+		}
+		return applicable;
+	}
+
+	private ExpressionResolver[] lookup(Class<?> expressionType, Class<?> resolutionType) {
+		List<ExpressionResolver> applicable = null;
+		for (ExpressionResolver resolver : resolvers) {
+			if (resolver.getExpressionType().isAssignableFrom(expressionType)
+					&& resolutionType.isAssignableFrom(resolver.getResolvedType())) {
+				if (applicable == null) {
+					applicable = new ArrayList<>(4);
+				}
+				applicable.add(resolver);
+			}
+		}
+		return (applicable != null) ? applicable.toArray(new ExpressionResolver[applicable.size()]) : NO_RESOLVERS;
+	}
+
+	private boolean contains(ExpressionResolver resolver) {
+		for (ExpressionResolver registered : resolvers) {
+			if (registered.equals(resolver)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int getPriority(ExpressionResolver resolver) {
+		final Priority priority = resolver.getClass().getAnnotation(Priority.class);
+		return (priority != null) ? priority.value() : DEFAULT_PRIORITY;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "QueryDslExpressionResolverRegistry [resolvers=" + Arrays.toString(resolvers) + "]";
+	}
+
+}
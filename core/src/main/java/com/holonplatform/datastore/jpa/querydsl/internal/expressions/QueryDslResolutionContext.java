@@ -105,4 +105,16 @@ public interface QueryDslResolutionContext extends JpaContext, ResolutionContext
 		return new DefaultQueryDslResolutionContext(context, queryMetadata);
 	}
 
+	/**
+	 * Create a new default {@link QueryDslResolutionContext} which uses given expression resolvers registry.
+	 * @param context JPA context to use (not null)
+	 * @param queryMetadata Query metadata
+	 * @param expressionResolvers Expression resolvers registry (not null)
+	 * @return A new {@link QueryDslResolutionContext}
+	 */
+	static QueryDslResolutionContext create(JpaContext context, QueryMetadata queryMetadata,
+			QueryDslExpressionResolverRegistry expressionResolvers) {
+		return new DefaultQueryDslResolutionContext(context, queryMetadata, expressionResolvers);
+	}
+
 }
@@ -17,19 +17,21 @@ package com.holonplatform.datastore.jpa.querydsl.internal.resolvers;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
-import java.util.WeakHashMap;
 
 import javax.annotation.Priority;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
 
 import com.holonplatform.core.Expression.InvalidExpressionException;
 import com.holonplatform.core.ExpressionResolver;
 import com.holonplatform.core.datastore.DataTarget;
-import com.holonplatform.core.internal.utils.ClassUtils;
+import com.holonplatform.core.internal.utils.ObjectUtils;
 import com.holonplatform.datastore.jpa.jpql.expression.JpaEntity;
+import com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp;
+import com.holonplatform.datastore.jpa.querydsl.internal.DefaultEntityPathWarmUp;
 import com.holonplatform.datastore.jpa.querydsl.internal.expressions.EntityPathExpression;
 import com.querydsl.core.types.EntityPath;
 
@@ -44,7 +46,17 @@ public enum QueryDslDataTargetResolver implements ExpressionResolver<DataTarget,
 
 	INSTANCE;
 
-	private final static WeakHashMap<ClassLoader, Map<Class, EntityPath>> ENTITY_PATHS = new WeakHashMap<>();
+	/**
+	 * Entity paths cache, bound to the domain classes lifecycle
+	 */
+	private final static ClassValue<EntityPath> ENTITY_PATHS = new ClassValue<EntityPath>() {
+
+		@Override
+		protected EntityPath computeValue(Class<?> domainClass) {
+			return lookupPath(domainClass);
+		}
+
+	};
 
 	/*
 	 * (non-Javadoc)
@@ -83,20 +95,73 @@ public enum QueryDslDataTargetResolver implements ExpressionResolver<DataTarget,
 						"Failed to resolve expression [" + expression + "] into a JPA entity class"));
 		expr.validate();
 
-		return Optional.of(
-				EntityPathExpression.create(resolvePath(ClassUtils.getDefaultClassLoader(), expr.getEntityClass())));
+		return Optional.of(EntityPathExpression.create(resolvePath(expr.getEntityClass())));
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Resolve the {@link EntityPath} of given domain class.
+	 * @param <T> Domain type
+	 * @param classLoader Ignored, the query class is always loaded using the domain class ClassLoader
+	 * @param domainClass The domain class
+	 * @return The domain class {@link EntityPath}
+	 * @throws IllegalArgumentException If the query class of the domain class is not available
+	 * @deprecated Use {@link #resolvePath(Class)}
+	 */
+	@Deprecated
 	public static <T> EntityPath<T> resolvePath(ClassLoader classLoader, Class<? extends T> domainClass) {
+		return resolvePath(domainClass);
+	}
 
-		final ClassLoader cl = (classLoader != null) ? classLoader : ClassUtils.getDefaultClassLoader();
+	/**
+	 * Resolve the {@link EntityPath} of given domain class, i.e. the static instance of the domain class query class.
+	 * <p>
+	 * The query class is loaded using the domain class ClassLoader, and the resolved paths are cached for the domain
+	 * class lifetime.
+	 * </p>
+	 * @param <T> Domain type
+	 * @param domainClass The domain class
+	 * @return The domain class {@link EntityPath}
+	 * @throws IllegalArgumentException If the query class of the domain class is not available
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> EntityPath<T> resolvePath(Class<? extends T> domainClass) {
+		final EntityPath entityPath = ENTITY_PATHS.get(domainClass);
+		if (entityPath == null) {
+			// do not cache missing values
+			ENTITY_PATHS.remove(domainClass);
+		}
+		return entityPath;
+	}
 
-		// check cache
-		Map<Class, EntityPath> mappings = ENTITY_PATHS.getOrDefault(cl, Collections.emptyMap());
-		if (mappings.containsKey(domainClass)) {
-			return mappings.get(domainClass);
+	/**
+	 * Resolve and cache the {@link EntityPath}s of all the entities of the persistence unit bound to given
+	 * {@link EntityManagerFactory}.
+	 * @param entityManagerFactory The EntityManagerFactory (not null)
+	 * @return The warm-up result
+	 */
+	public static EntityPathWarmUp warmUp(EntityManagerFactory entityManagerFactory) {
+		ObjectUtils.argumentNotNull(entityManagerFactory, "EntityManagerFactory must be not null");
+		final long start = System.nanoTime();
+		int resolved = 0;
+		final List<Class<?>> failed = new LinkedList<>();
+		for (EntityType<?> entityType : entityManagerFactory.getMetamodel().getEntities()) {
+			final Class<?> entityClass = entityType.getJavaType();
+			if (entityClass != null) {
+				try {
+					if (resolvePath(entityClass) != null) {
+						resolved++;
+					} else {
+						failed.add(entityClass);
+					}
+				} catch (@SuppressWarnings("unused") RuntimeException e) {
+					failed.add(entityClass);
+				}
+			}
 		}
+		return new DefaultEntityPathWarmUp(resolved, failed, System.nanoTime() - start);
+	}
+
+	private static EntityPath lookupPath(Class<?> domainClass) {
 
 		String pathClassName = getQueryClassName(domainClass);
 
@@ -107,12 +172,7 @@ public enum QueryDslDataTargetResolver implements ExpressionResolver<DataTarget,
 			if (field == null) {
 				throw new IllegalStateException("Static field of type " + pathClass.getName() + " not found");
 			} else {
-				EntityPath entityPath = (EntityPath) field.get(null);
-				if (entityPath != null) {
-					// cache value
-					ENTITY_PATHS.computeIfAbsent(cl, c -> new HashMap<>()).put(domainClass, entityPath);
-				}
-				return entityPath;
+				return (EntityPath) field.get(null);
 			}
 
 		} catch (ClassNotFoundException e) {
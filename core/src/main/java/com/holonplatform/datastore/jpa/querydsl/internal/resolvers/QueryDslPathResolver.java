@@ -15,7 +15,11 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.internal.resolvers;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 import javax.annotation.Priority;
@@ -43,6 +47,16 @@ public enum QueryDslPathResolver implements QueryDslContextExpressionResolver<Pa
 
 	INSTANCE;
 
+	/**
+	 * Maximum number of cached query paths for each root type
+	 */
+	private static final int PATHS_CACHE_MAXIMUM_SIZE = 256;
+
+	/**
+	 * Resolved query paths cache, bound to the root types lifecycle
+	 */
+	private static final PathsCache PATHS = new PathsCache();
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.holonplatform.core.ExpressionResolver#getExpressionType()
@@ -84,16 +98,36 @@ public enum QueryDslPathResolver implements QueryDslContextExpressionResolver<Pa
 		// get query path from property
 		final String queryPath = path.getName();
 
-		PathBuilder<?> rootPathBuilder = new PathBuilder<>(root.getType(), root.getMetadata());
-		@SuppressWarnings("unchecked")
-		PathBuilder<?> pb = rootPathBuilder.get(queryPath, path.getType());
+		return Optional.of(QueryDslExpression.create(getPathBuilder(root, queryPath, path.getType())));
 
+	}
+
+	/**
+	 * Get the {@link PathBuilder} for given root path, property name and type, using the cached one if available.
+	 * @param root Root path
+	 * @param name Property name
+	 * @param type Property type
+	 * @return The {@link PathBuilder}
+	 * @throws InvalidExpressionException If a valid path cannot be obtained
+	 */
+	@SuppressWarnings("unchecked")
+	public static PathBuilder<?> getPathBuilder(com.querydsl.core.types.Path<?> root, String name, Class<?> type) {
+		final Map<PathKey, PathBuilder<?>> paths = PATHS.get(root.getType());
+		final PathKey key = new PathKey(root, name, type);
+		PathBuilder<?> pb = paths.get(key);
 		if (pb == null) {
-			throw new InvalidExpressionException("Cannot get a valid PathBuilder for path expression [" + path + "]");
+			PathBuilder<?> rootPathBuilder = new PathBuilder<>(root.getType(), root.getMetadata());
+			pb = rootPathBuilder.get(name, (Class<Object>) type);
+			if (pb == null) {
+				throw new InvalidExpressionException(
+						"Cannot get a valid PathBuilder for path [" + name + "] of root [" + root + "]");
+			}
+			final PathBuilder<?> cached = paths.putIfAbsent(key, pb);
+			if (cached != null) {
+				pb = cached;
+			}
 		}
-
-		return Optional.of(QueryDslExpression.create(pb));
-
+		return pb;
 	}
 
 	private static Optional<com.querydsl.core.types.Path<?>> getParentRootPath(Path<?> path,
@@ -147,4 +181,64 @@ public enum QueryDslPathResolver implements QueryDslContextExpressionResolver<Pa
 		throw new InvalidExpressionException("Missing query from clause: cannot resolve path [" + path + "]");
 	}
 
+	/**
+	 * Query paths cache, by root type. For each root type, the least recently used paths are evicted when the cache is
+	 * full, which may happen when many aliased roots are used.
+	 */
+	private static final class PathsCache extends ClassValue<Map<PathKey, PathBuilder<?>>> {
+
+		@Override
+		protected Map<PathKey, PathBuilder<?>> computeValue(Class<?> rootType) {
+			return Collections.synchronizedMap(new LinkedHashMap<PathKey, PathBuilder<?>>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<PathKey, PathBuilder<?>> eldest) {
+					return size() > PATHS_CACHE_MAXIMUM_SIZE;
+				}
+
+			});
+		}
+
+	}
+
+	/**
+	 * Query paths cache key.
+	 */
+	private static final class PathKey {
+
+		private final com.querydsl.core.types.Path<?> root;
+		private final String name;
+		private final Class<?> type;
+		private final int hash;
+
+		PathKey(com.querydsl.core.types.Path<?> root, String name, Class<?> type) {
+			super();
+			// the keys are grouped by root type, since path equality does not take the type into account
+			this.root = root;
+			this.name = name;
+			this.type = type;
+			this.hash = Objects.hash(root, name, type);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PathKey)) {
+				return false;
+			}
+			final PathKey other = (PathKey) obj;
+			return hash == other.hash && type == other.type && name.equals(other.name) && root.equals(other.root);
+		}
+
+	}
+
 }
@@ -15,19 +15,41 @@
  */
 package com.holonplatform.datastore.jpa.querydsl.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.reflect.Proxy;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.test.annotation.Rollback;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.holonplatform.core.beans.BeanIntrospector;
@@ -46,11 +68,31 @@ import com.holonplatform.core.property.PathProperty;
 import com.holonplatform.core.property.PropertyBox;
 import com.holonplatform.core.property.PropertySet;
 import com.holonplatform.core.query.Query;
+import com.holonplatform.core.query.QueryFilter;
+import com.holonplatform.datastore.jpa.JpaDatastore;
 import com.holonplatform.datastore.jpa.JpaTarget;
+import com.holonplatform.datastore.jpa.context.JpaContext;
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch;
+import com.holonplatform.datastore.jpa.querydsl.ColumnBatch.ColumnType;
+import com.holonplatform.datastore.jpa.querydsl.EntityPathWarmUp;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStatistics;
+import com.holonplatform.datastore.jpa.querydsl.FetchResultsStrategy;
+import com.holonplatform.datastore.jpa.querydsl.JpaDeleteClause;
 import com.holonplatform.datastore.jpa.querydsl.JpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.JpaUpdateClause;
+import com.holonplatform.datastore.jpa.querydsl.KeysetPageToken;
+import com.holonplatform.datastore.jpa.querydsl.PreparedJpaQuery;
+import com.holonplatform.datastore.jpa.querydsl.QueryBatch;
+import com.holonplatform.datastore.jpa.querydsl.QueryBatch.Result;
 import com.holonplatform.datastore.jpa.querydsl.QueryDsl;
 import com.holonplatform.datastore.jpa.querydsl.QueryDslProperty;
 import com.holonplatform.datastore.jpa.querydsl.QueryDslTarget;
+import com.holonplatform.datastore.jpa.querydsl.ResultCacheStatistics;
+import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslExpression;
+import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslExpressionResolverRegistry;
+import com.holonplatform.datastore.jpa.querydsl.internal.expressions.QueryDslResolutionContext;
+import com.holonplatform.datastore.jpa.querydsl.internal.resolvers.QueryDslDataTargetResolver;
+import com.holonplatform.datastore.jpa.querydsl.internal.resolvers.QueryDslPathResolver;
 import com.holonplatform.datastore.jpa.querydsl.test.data.CustomFilter;
 import com.holonplatform.datastore.jpa.querydsl.test.data.CustomFilterResolver;
 import com.holonplatform.datastore.jpa.querydsl.test.data.KeyIs;
@@ -58,9 +100,17 @@ import com.holonplatform.datastore.jpa.querydsl.test.data.MoreCustomFilter;
 import com.holonplatform.datastore.jpa.querydsl.test.data.MoreCustomFilterResolver;
 import com.holonplatform.datastore.jpa.querydsl.test.data.QTestJpaDomain;
 import com.holonplatform.datastore.jpa.querydsl.test.data.QTestOtherDomain;
+import com.holonplatform.datastore.jpa.querydsl.test.data.ValueKeyIsResolver;
 import com.holonplatform.datastore.jpa.querydsl.test.domain.TestEnum;
 import com.holonplatform.datastore.jpa.querydsl.test.domain.TestJpaDomain;
 import com.holonplatform.datastore.jpa.querydsl.test.domain.TestOtherDomain;
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.QueryResults;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.core.types.dsl.PathBuilder;
 
 public abstract class AbstractQueryDslTest {
 
@@ -75,6 +125,8 @@ public abstract class AbstractQueryDslTest {
 
 	protected abstract Datastore getDatastore();
 
+	protected abstract EntityManagerFactory getEntityManagerFactory();
+
 	@Test
 	@Transactional
 	public void testDML() {
@@ -486,6 +538,676 @@ public abstract class AbstractQueryDslTest {
 		q.select(QTestJpaDomain.testJpaDomain.key, QTestJpaDomain.testJpaDomain.dateValue);
 	}
 
+	@Test
+	public void testJpqlCache() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+
+		List<TestJpaDomain> results = queryDsl.selectFrom(QTestJpaDomain.testJpaDomain)
+				.where(QTestJpaDomain.testJpaDomain.key.eq(1L)).fetch();
+		assertEquals(1, results.size());
+		assertEquals(Long.valueOf(1), results.get(0).getKey());
+
+		final long hits = queryDsl.getJpqlCacheStatistics().getHitCount();
+
+		results = queryDsl.selectFrom(QTestJpaDomain.testJpaDomain).where(QTestJpaDomain.testJpaDomain.key.eq(2L))
+				.fetch();
+		assertEquals(1, results.size());
+		assertEquals(Long.valueOf(2), results.get(0).getKey());
+
+		assertTrue(queryDsl.getJpqlCacheStatistics().getHitCount() > hits);
+	}
+
+	@Test
+	public void testPreparedQuery() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+
+		final Param<Long> key = new Param<>(Long.class, "key");
+		final PreparedJpaQuery<String> prepared = queryDsl
+				.prepare(queryDsl.select(QTestJpaDomain.testJpaDomain.stringValue).from(QTestJpaDomain.testJpaDomain)
+						.where(QTestJpaDomain.testJpaDomain.key.eq(key)));
+
+		assertEquals("One", prepared.set(key, 1L).fetchOne());
+		assertEquals("Two", prepared.set(key, 2L).fetchOne());
+		assertEquals(1L, prepared.set(key, 1L).fetchCount());
+
+		final PreparedJpaQuery<TestJpaDomain> all = queryDsl.prepare(queryDsl.selectFrom(QTestJpaDomain.testJpaDomain)
+				.orderBy(QTestJpaDomain.testJpaDomain.key.asc()));
+		assertEquals(2, all.fetch().size());
+		assertEquals(Long.valueOf(2), all.offset(1).fetchFirst().getKey());
+		assertEquals(1, all.limit(1).fetch().size());
+		assertEquals(2, all.fetch().size());
+	}
+
+	@Test
+	public void testQueryReuse() {
+		final JpaQuery<TestJpaDomain> query = getDatastore().create(QueryDsl.class)
+				.selectFrom(QTestJpaDomain.testJpaDomain).filter(KEY.goe(1L)).sort(KEY.desc());
+
+		assertEquals(2, query.fetch().size());
+		assertEquals(2, query.fetchCount());
+		assertEquals(2, query.fetchResults().getTotal());
+		assertEquals(Long.valueOf(2), query.fetchFirst().getKey());
+
+		// the query metadata must not be altered by the query executions
+		assertTrue(query.getMetadata().getWhere() == null);
+		assertTrue(query.getMetadata().getOrderBy().isEmpty());
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testStream() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		try (Stream<String> stream = queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).setFetchSize(10)
+				.stream()) {
+			assertEquals("One,Two", stream.collect(Collectors.joining(",")));
+		}
+
+		// the current transaction changes are visible
+		queryDsl.update(qd).set(qd.stringValue, "Uno").where(qd.key.eq(1L)).execute();
+		try (Stream<String> stream = queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).stream()) {
+			assertEquals("Uno,Two", stream.collect(Collectors.joining(",")));
+		}
+		try (Stream<String> stream = queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).prepare()
+				.stream()) {
+			assertEquals("Uno,Two", stream.collect(Collectors.joining(",")));
+		}
+
+		// dedicated EntityManager
+		try (Stream<String> stream = queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(2L))
+				.setDedicatedEntityManager(true).stream()) {
+			assertEquals("Two", stream.collect(Collectors.joining(",")));
+		}
+	}
+
+	@Test
+	public void testSeekAfter() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+
+		List<Long> keys = queryDsl.select(QTestJpaDomain.testJpaDomain.key).from(QTestJpaDomain.testJpaDomain)
+				.orderBy(QTestJpaDomain.testJpaDomain.key.asc()).seekAfter(1L).fetch();
+		assertEquals(1, keys.size());
+		assertEquals(Long.valueOf(2), keys.get(0));
+
+		keys = queryDsl.select(QTestJpaDomain.testJpaDomain.key).from(QTestJpaDomain.testJpaDomain).sort(KEY.desc())
+				.seekAfter(KeysetPageToken.of(2L)).fetch();
+		assertEquals(1, keys.size());
+		assertEquals(Long.valueOf(1), keys.get(0));
+
+		keys = queryDsl.select(QTestJpaDomain.testJpaDomain.key).from(QTestJpaDomain.testJpaDomain)
+				.orderBy(QTestJpaDomain.testJpaDomain.stringValue.desc(), QTestJpaDomain.testJpaDomain.key.asc())
+				.seekAfter("Two", 2L).fetch();
+		assertEquals(1, keys.size());
+		assertEquals(Long.valueOf(1), keys.get(0));
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testFetchResultsStrategy() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final FetchResultsStatistics statistics = queryDsl.getFetchResultsStatistics();
+		final long skipped = statistics.getSkippedCountQueries();
+
+		for (FetchResultsStrategy strategy : FetchResultsStrategy.values()) {
+			QueryResults<Long> results = queryDsl.select(QTestJpaDomain.testJpaDomain.key)
+					.from(QTestJpaDomain.testJpaDomain).orderBy(QTestJpaDomain.testJpaDomain.key.asc()).limit(1)
+					.setFetchResultsStrategy(strategy).fetchResults();
+			assertEquals(2, results.getTotal());
+			assertEquals(1, results.getResults().size());
+			assertEquals(Long.valueOf(1), results.getResults().get(0));
+		}
+
+		// short first page: count query skipped
+		QueryResults<Long> results = queryDsl.select(QTestJpaDomain.testJpaDomain.key)
+				.from(QTestJpaDomain.testJpaDomain).limit(10).setFetchResultsStrategy(FetchResultsStrategy.PAGE_FIRST)
+				.fetchResults();
+		assertEquals(2, results.getTotal());
+		assertEquals(skipped + 1, statistics.getSkippedCountQueries());
+
+		// cached total
+		results = queryDsl.select(QTestJpaDomain.testJpaDomain.key).from(QTestJpaDomain.testJpaDomain)
+				.orderBy(QTestJpaDomain.testJpaDomain.key.asc()).limit(1).offset(1)
+				.setFetchResultsStrategy(FetchResultsStrategy.CACHED_TOTAL).fetchResults();
+		assertEquals(2, results.getTotal());
+		assertEquals(Long.valueOf(2), results.getResults().get(0));
+		assertEquals(skipped + 2, statistics.getSkippedCountQueries());
+
+		// cached totals are invalidated by the delete clauses
+		queryDsl.delete(QTestJpaDomain.testJpaDomain).where(QTestJpaDomain.testJpaDomain.key.eq(2L)).execute();
+		results = queryDsl.select(QTestJpaDomain.testJpaDomain.key).from(QTestJpaDomain.testJpaDomain)
+				.orderBy(QTestJpaDomain.testJpaDomain.key.asc()).limit(1).offset(1)
+				.setFetchResultsStrategy(FetchResultsStrategy.CACHED_TOTAL).fetchResults();
+		assertEquals(1, results.getTotal());
+		assertEquals(skipped + 2, statistics.getSkippedCountQueries());
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testFetchResultsConcurrent() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+		final FetchResultsStatistics statistics = queryDsl.getFetchResultsStatistics();
+		final long concurrent = statistics.getConcurrentExecutions();
+
+		final QueryResults<Long> results = queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).limit(1)
+				.setFetchResultsStrategy(FetchResultsStrategy.CONCURRENT).fetchResults();
+		assertEquals(2, results.getTotal());
+		assertEquals(Arrays.asList(1L), results.getResults());
+		assertEquals(concurrent + 1, statistics.getConcurrentExecutions());
+	}
+
+	@Test
+	public void testCountQuery() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertEquals(2, queryDsl.select(qd.key).from(qd).orderBy(qd.key.desc()).fetchCount());
+		assertEquals(2, queryDsl.select(qd).distinct().from(qd).fetchCount());
+		assertEquals(2, queryDsl.select(qd.key, qd.stringValue).distinct().from(qd).fetchCount());
+		assertEquals(2, queryDsl.select(qd.key).from(qd).groupBy(qd.key, qd.stringValue).fetchCount());
+		assertEquals(1,
+				queryDsl.select(qd.key).from(qd).groupBy(qd.key).having(qd.key.gt(1L)).fetchResults().getTotal());
+		// count(distinct) of a not nullable group key
+		assertEquals(2, queryDsl.select(qd.numericBooleanValue).from(qd).groupBy(qd.numericBooleanValue).fetchCount());
+		assertEquals(1, queryDsl.select(qd.key).from(qd).where(qd.key.eq(2L)).groupBy(qd.key).fetchCount());
+		// the null group is counted
+		assertEquals(2, queryDsl.select(qd.decimalValue).from(qd).groupBy(qd.decimalValue).fetchCount());
+	}
+
+	@Test
+	public void testFetchExists() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertTrue(queryDsl.selectFrom(qd).where(qd.key.eq(1L)).orderBy(qd.key.asc()).fetchExists());
+		assertFalse(queryDsl.selectFrom(qd).where(qd.key.eq(99L)).fetchExists());
+
+		final BitSet exists = queryDsl.selectFrom(qd).where(qd.stringValue.isNotNull()).fetchExists(qd.key,
+				Arrays.asList(2L, 99L, null, 1L));
+		assertEquals(2, exists.cardinality());
+		assertTrue(exists.get(0));
+		assertFalse(exists.get(1));
+		assertFalse(exists.get(2));
+		assertTrue(exists.get(3));
+	}
+
+	@Test
+	public void testProjectionTransform() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final List<Tuple> tuples = queryDsl.select(Projections.tuple(qd.key)).from(qd).orderBy(qd.key.asc())
+				.fetch();
+		assertEquals(2, tuples.size());
+		assertEquals(Long.valueOf(1), tuples.get(0).get(qd.key));
+		assertEquals(Long.valueOf(2), tuples.get(1).get(qd.key));
+
+		final List<Map<Expression<?>, ?>> maps = queryDsl.select(Projections.map(qd.key, qd.stringValue)).from(qd)
+				.orderBy(qd.key.asc()).fetch();
+		assertEquals(2, maps.size());
+		assertEquals("One", maps.get(0).get(qd.stringValue));
+		assertEquals("Two", maps.get(1).get(qd.stringValue));
+	}
+
+	@Test
+	public void testFetchPrimitives() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertArrayEquals(new long[] { 1L, 2L }, queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).fetchLongs());
+		assertArrayEquals(new int[] { 2 }, queryDsl.select(qd.key).from(qd).where(qd.key.eq(2L)).fetchInts());
+		assertArrayEquals(new double[] { 2d, 1d },
+				queryDsl.select(qd.key).from(qd).orderBy(qd.key.desc()).setFetchSize(1).fetchDoubles());
+		assertEquals(0, queryDsl.select(qd.key).from(qd).where(qd.key.eq(99L)).fetchLongs().length);
+	}
+
+	@Test
+	public void testFetchColumnar() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final ColumnBatch batch = queryDsl.select(qd.key, qd.stringValue).from(qd).orderBy(qd.key.asc())
+				.fetchColumnar();
+		assertEquals(2, batch.getRowCount());
+		assertEquals(ColumnType.LONG, batch.getColumn(qd.key).getType());
+		assertEquals(1L, batch.getColumn(qd.key).getLongs()[0]);
+		assertEquals(2L, batch.getColumn(qd.key).getLongs()[1]);
+		assertEquals(ColumnType.DICTIONARY, batch.getColumn(1).getType());
+		assertEquals("Two", batch.getColumn(qd.stringValue).getValue(1));
+		assertEquals(2, batch.getColumn(qd.stringValue).getDictionary().size());
+
+		final List<ColumnBatch> batches = new ArrayList<>();
+		queryDsl.select(qd.key, qd.stringValue).from(qd).orderBy(qd.key.asc()).fetchColumnar(1, batches::add);
+		assertEquals(2, batches.size());
+		assertEquals(1, batches.get(1).getRowCount());
+		assertEquals(2L, batches.get(1).getColumn(0).getLongs()[0]);
+		assertEquals(1, batches.get(1).getColumn(1).getCodes()[0]);
+
+		// nested projection
+		final ColumnBatch nested = queryDsl.select(Projections.tuple(qd.key, Projections.tuple(qd.stringValue)))
+				.from(qd).orderBy(qd.key.asc()).fetchColumnar();
+		assertEquals(Arrays.asList(qd.key, qd.stringValue), nested.getExpressions());
+		assertEquals(2L, nested.getColumn(qd.key).getLongs()[1]);
+		assertEquals("Two", nested.getColumn(qd.stringValue).getValue(1));
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testFetchColumnarTransactional() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		// single column
+		final ColumnBatch keys = queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).fetchColumnar();
+		assertEquals(2, keys.getRowCount());
+		assertEquals(2L, keys.getColumn(qd.key).getLongs()[1]);
+
+		// nested projection
+		final List<ColumnBatch> batches = new ArrayList<>();
+		queryDsl.select(Projections.tuple(Projections.tuple(qd.key, qd.stringValue), qd.numericBooleanValue))
+				.from(qd).orderBy(qd.key.asc()).fetchColumnar(1, batches::add);
+		assertEquals(2, batches.size());
+		assertEquals(Arrays.asList(qd.key, qd.stringValue, qd.numericBooleanValue), batches.get(1).getExpressions());
+		assertEquals(2L, batches.get(1).getColumn(qd.key).getLongs()[0]);
+		assertEquals("Two", batches.get(1).getColumn(qd.stringValue).getValue(0));
+		assertEquals(ColumnType.INT, batches.get(1).getColumn(qd.numericBooleanValue).getType());
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testForEachChunk() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		// keyset pagination
+		final List<Long> keys = new ArrayList<>();
+		assertEquals(2, queryDsl.selectFrom(qd).orderBy(qd.key.asc()).forEachChunk(1, chunk -> {
+			assertEquals(1, chunk.size());
+			keys.add(chunk.get(0).getKey());
+		}));
+		assertEquals(Arrays.asList(1L, 2L), keys);
+
+		// offset pagination
+		final List<String> values = new ArrayList<>();
+		assertEquals(2,
+				queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.desc()).forEachChunk(1, values::addAll));
+		assertEquals(Arrays.asList("Two", "One"), values);
+
+		// duplicate sort values
+		assertEquals(2, queryDsl.update(qd).set(qd.stringValue, "Same").execute());
+		keys.clear();
+		assertEquals(2, queryDsl.select(qd.key).from(qd).orderBy(qd.stringValue.asc()).forEachChunk(1, keys::addAll));
+		assertEquals(Arrays.asList(1L, 2L), keys);
+		keys.clear();
+		assertEquals(2, queryDsl.selectFrom(qd).orderBy(qd.stringValue.asc()).forEachChunk(1,
+				chunk -> keys.add(chunk.get(0).getKey())));
+		assertEquals(Arrays.asList(1L, 2L), keys);
+		keys.clear();
+		assertEquals(2, queryDsl.select(qd.key).from(qd).forEachChunk(1, keys::addAll));
+		assertEquals(Arrays.asList(1L, 2L), keys);
+		keys.clear();
+		assertEquals(2, queryDsl.selectFrom(qd).orderBy(qd.stringValue.asc(), qd.key.desc()).forEachChunk(1,
+				chunk -> keys.add(chunk.get(0).getKey())));
+		assertEquals(Arrays.asList(2L, 1L), keys);
+
+		// nested projection
+		assertEquals(2, queryDsl.update(qd).set(qd.decimalValue, 1d).execute());
+		keys.clear();
+		assertEquals(2,
+				queryDsl.select(Projections.tuple(Projections.tuple(qd.stringValue, qd.decimalValue), qd.key))
+						.from(qd).orderBy(qd.key.desc())
+						.forEachChunk(1, chunk -> keys.add(chunk.get(0).get(1, Long.class))));
+		assertEquals(Arrays.asList(2L, 1L), keys);
+
+		assertEquals(1, queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).offset(1).forEachChunk(5, chunk -> {
+			assertEquals(Long.valueOf(2), chunk.get(0));
+		}));
+	}
+
+	@Test
+	public void testReadOnly() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertEquals(2, queryDsl.selectFrom(qd).readOnly().fetch().size());
+		assertEquals("One", queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)).fetchOne());
+		assertEquals(2, queryDsl.selectFrom(qd).setReadOnly(false).fetchCount());
+
+		final QueryDsl readOnlyDsl = getDatastore().create(QueryDsl.class).setDefaultReadOnly(true);
+		assertEquals(Long.valueOf(2), readOnlyDsl.select(qd.key).from(qd).where(qd.key.eq(2L)).fetchOne());
+	}
+
+	@Test
+	public void testFetchAsync() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final CompletableFuture<List<String>> values = queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc())
+				.fetchAsync();
+		final CompletableFuture<String> value = queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(2L))
+				.fetchOneAsync();
+		final CompletableFuture<Long> count = queryDsl.selectFrom(qd).fetchCountAsync();
+		final CompletableFuture<QueryResults<TestJpaDomain>> results = queryDsl.selectFrom(qd).orderBy(qd.key.asc())
+				.limit(1).fetchResultsAsync();
+
+		assertEquals(Arrays.asList("One", "Two"), values.join());
+		assertEquals("Two", value.join());
+		assertEquals(Long.valueOf(2), count.join());
+		assertEquals(2, results.join().getTotal());
+		assertEquals(1, results.join().getResults().size());
+
+		assertNull(queryDsl.selectFrom(qd).where(qd.key.eq(-1L)).setAsyncExecutor(Runnable::run).fetchOneAsync()
+				.join());
+
+		// the executor thread EntityManager is obtained through the datastore
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final Datastore datastore = JpaDatastore.builder().entityManagerFactory(getEntityManagerFactory())
+				.entityManagerInitializer(emf -> {
+					threads.add(Thread.currentThread());
+					return emf.createEntityManager();
+				}).build();
+		assertEquals(Long.valueOf(2), datastore.create(QueryDsl.class).selectFrom(qd)
+				.setAsyncExecutor(r -> new Thread(r).start()).fetchCountAsync().join());
+		assertTrue(threads.stream().anyMatch(thread -> thread != Thread.currentThread()));
+	}
+
+	@Test
+	public void testPartitionBy() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertEquals(Arrays.asList(1L, 2L),
+				queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).partitionBy(qd.key, 2).fetch());
+		assertEquals(Arrays.asList("Two", "One"),
+				queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.desc()).partitionBy(qd.key, 4).fetch());
+		assertEquals(2, queryDsl.selectFrom(qd).partitionBy(qd.key, 3).bounds(0, 100).executor(Runnable::run)
+				.stream().count());
+		assertEquals(1, queryDsl.selectFrom(qd).where(qd.key.gt(1L)).partitionBy(qd.key, 2).fetch().size());
+
+		assertThrows(IllegalStateException.class,
+				() -> queryDsl.select(qd.key).from(qd).limit(1).partitionBy(qd.key, 2));
+
+		// nullable key: explicit null handling required to preserve the order
+		assertThrows(IllegalStateException.class, () -> queryDsl.select(qd.key).from(qd)
+				.orderBy(qd.decimalValue.desc()).partitionBy(qd.decimalValue, 2).bounds(0, 10).fetch());
+		assertEquals(Arrays.asList(1L, 2L), queryDsl.select(qd.key).from(qd)
+				.orderBy(qd.decimalValue.desc().nullsLast()).partitionBy(qd.decimalValue, 2).bounds(0, 10).fetch());
+		assertEquals(Arrays.asList(2L, 1L), queryDsl.select(qd.key).from(qd)
+				.orderBy(qd.decimalValue.desc().nullsFirst()).partitionBy(qd.decimalValue, 2).bounds(0, 10).fetch());
+	}
+
+	@Test
+	public void testQueryBatch() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final QueryBatch batch = queryDsl.batch();
+		final Result<Long> count = batch.fetchCount(queryDsl.selectFrom(qd));
+		final Result<List<String>> values = batch.fetch(queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()));
+		final Result<String> value = batch.fetchOne(queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)));
+		final Result<QueryResults<Long>> results = batch
+				.fetchResults(queryDsl.select(qd.key).from(qd).orderBy(qd.key.asc()).limit(1));
+		assertEquals(4, batch.size());
+		assertFalse(count.isAvailable());
+
+		batch.execute();
+		assertTrue(count.isAvailable());
+		assertEquals(Long.valueOf(2), count.get());
+		assertEquals(Arrays.asList("One", "Two"), values.get());
+		assertEquals("One", value.get());
+		assertEquals(2, results.get().getTotal());
+		assertEquals(Arrays.asList(1L), results.get().getResults());
+
+		// parallel execution
+		batch.parallelism(2).executor(Runnable::run).execute();
+		assertEquals(Long.valueOf(2), count.get());
+		assertEquals(Arrays.asList("One", "Two"), values.get());
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testResultCache() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+		final ResultCacheStatistics statistics = queryDsl.getResultCacheStatistics();
+		final Duration ttl = Duration.ofMinutes(1);
+
+		final long hits = statistics.getHitCount();
+		final List<String> values = queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)).cacheable(ttl)
+				.fetch();
+		assertEquals(Arrays.asList("One"), values);
+		assertEquals(values, queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)).cacheable(ttl).fetch());
+		assertEquals(hits + 1, statistics.getHitCount());
+		// each execution gets its own results
+		values.add("Three");
+		assertEquals(Arrays.asList("One"),
+				queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)).cacheable(ttl).fetch());
+		assertEquals(hits + 2, statistics.getHitCount());
+
+		// entities are never cached
+		final long misses = statistics.getMissCount();
+		assertNotNull(queryDsl.selectFrom(qd).where(qd.key.eq(1L)).cacheable(ttl).fetchOne());
+		assertNotNull(queryDsl.selectFrom(qd).where(qd.key.eq(1L)).cacheable(ttl).fetchOne());
+		assertEquals(misses, statistics.getMissCount());
+		assertEquals(hits + 2, statistics.getHitCount());
+		assertEquals(Arrays.asList("Two"),
+				queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(2L)).cacheable(ttl).fetch());
+		assertEquals(2, queryDsl.selectFrom(qd).cacheable(ttl).fetchCount());
+
+		// invalidation
+		final long invalidations = statistics.getInvalidationCount();
+		assertEquals(1, queryDsl.update(qd).set(qd.stringValue, "Uno").where(qd.key.eq(1L)).execute());
+		assertTrue(statistics.getInvalidationCount() > invalidations);
+		assertEquals("Uno", queryDsl.select(qd.stringValue).from(qd).where(qd.key.eq(1L)).cacheable(ttl).fetchOne());
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testBatchClauses() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final JpaUpdateClause update = queryDsl.update(qd);
+		update.set(qd.stringValue, "Uno").where(qd.key.eq(1L)).addBatch();
+		update.set(qd.stringValue, "Due").where(qd.key.eq(2L)).addBatch();
+		update.set(qd.stringValue, "Tre").where(qd.key.eq(3L)).addBatch();
+		assertEquals(3, update.getBatchCount());
+		assertTrue(update.isEmpty());
+
+		final long[] counts = update.executeBatch();
+		assertArrayEquals(new long[] { 1, 1, 0 }, counts);
+		assertEquals(0, update.getBatchCount());
+		assertEquals(Arrays.asList("Uno", "Due"),
+				queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).fetch());
+
+		final JpaDeleteClause delete = queryDsl.delete(qd);
+		delete.where(qd.key.eq(98L)).addBatch();
+		delete.where(qd.key.eq(99L)).addBatch();
+		assertEquals(0, delete.execute());
+		assertEquals(0, delete.getBatchCount());
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testDeleteInChunks() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		assertThrows(IllegalArgumentException.class, () -> queryDsl.delete(qd).deleteInChunks(0));
+
+		final List<Long> progress = new ArrayList<>();
+		assertEquals(0, queryDsl.delete(qd).where(qd.key.gt(10L)).deleteInChunks(1).progress(progress::add).execute());
+		assertTrue(progress.isEmpty());
+
+		final long deleted = queryDsl.delete(qd).where(qd.key.goe(1L)).deleteInChunks(1).parallelism(2)
+				.progress(progress::add).execute();
+		assertEquals(2, deleted);
+		assertEquals(Arrays.asList(1L, 2L), progress);
+		assertEquals(0, queryDsl.selectFrom(qd).fetchCount());
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testDeleteInChunksTransactions() {
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final EntityManager entityManager = getEntityManagerFactory().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			for (long key = 1001L; key <= 1010L; key++) {
+				final TestJpaDomain entity = new TestJpaDomain();
+				entity.setKey(key);
+				entity.setStringValue("chunk");
+				entityManager.persist(entity);
+			}
+			entityManager.getTransaction().commit();
+
+			// shared EntityManager: no resource-local transactions
+			assertThrows(IllegalStateException.class, () -> getDatastore().create(QueryDsl.class).delete(qd)
+					.where(qd.key.gt(1000L)).deleteInChunks(3).execute());
+
+			final QueryDsl queryDsl = JpaDatastore.builder().entityManagerFactory(getEntityManagerFactory()).build()
+					.create(QueryDsl.class);
+			final List<Long> progress = new CopyOnWriteArrayList<>();
+			assertEquals(10, queryDsl.delete(qd).where(qd.key.gt(1000L)).deleteInChunks(3).parallelism(2)
+					.progress(progress::add).execute());
+			assertEquals(4, progress.size());
+			assertEquals(Long.valueOf(10L), progress.stream().max(Long::compare).orElse(null));
+			assertEquals(0, queryDsl.selectFrom(qd).where(qd.key.gt(1000L)).fetchCount());
+			assertEquals(2, queryDsl.selectFrom(qd).fetchCount());
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.getTransaction().begin();
+			entityManager.createQuery("delete from TestJpaDomain d where d.key > 1000").executeUpdate();
+			entityManager.getTransaction().commit();
+			entityManager.close();
+		}
+	}
+
+	@Test
+	@Transactional
+	@Rollback
+	public void testSetFromMap() {
+		final QueryDsl queryDsl = getDatastore().create(QueryDsl.class);
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+
+		final Map<Long, String> values = new HashMap<>();
+		values.put(1L, "Uno");
+		values.put(2L, "Due");
+		values.put(3L, "Tre");
+
+		final JpaUpdateClause update = queryDsl.update(qd).setFromMap(qd.stringValue, qd.key, values, 2);
+		assertFalse(update.isEmpty());
+		assertThrows(IllegalStateException.class, () -> update.setFromMap(qd.stringValue, qd.key, values));
+		assertEquals(2, update.execute());
+		assertEquals(Arrays.asList("Uno", "Due"),
+				queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).fetch());
+
+		values.clear();
+		values.put(1L, null);
+		values.put(2L, "Two");
+		assertEquals(1, queryDsl.update(qd).setFromMap(qd.stringValue, qd.key, values).where(qd.key.gt(1L))
+				.execute());
+		assertEquals(Arrays.asList("Uno", "Two"),
+				queryDsl.select(qd.stringValue).from(qd).orderBy(qd.key.asc()).fetch());
+
+		// an empty map is rejected, instead of discarding the other updates
+		assertThrows(IllegalArgumentException.class, () -> queryDsl.update(qd).set(qd.numericBooleanValue, 1)
+				.setFromMap(qd.stringValue, qd.key, Collections.emptyMap()));
+	}
+
+	@Test
+	public void testExpressionResolverRegistry() {
+		final ValueKeyIsResolver high = new ValueKeyIsResolver.High();
+		final ValueKeyIsResolver low = new ValueKeyIsResolver.Low();
+		final ValueKeyIsResolver first = new ValueKeyIsResolver(1L);
+		final ValueKeyIsResolver second = new ValueKeyIsResolver(2L);
+
+		// priority order, then registration order
+		final QueryDslExpressionResolverRegistry registry = QueryDslExpressionResolverRegistry
+				.create(Arrays.asList(second, low, first, high));
+		final List<Object> resolvers = new ArrayList<>();
+		registry.getExpressionResolvers().forEach(resolvers::add);
+		assertEquals(Arrays.asList(high, low, second, first), resolvers);
+		assertEquals(10L, resolveKey(registry));
+		assertEquals(20L, resolveKey(registry.withoutExpressionResolver(high)));
+		assertEquals(2L, resolveKey(QueryDslExpressionResolverRegistry.create(Arrays.asList(second, first))));
+		assertTrue(registry == registry.withExpressionResolver(low));
+		assertEquals(4, registry.size());
+
+		// dispatch by expression class and resolution type
+		assertFalse(registry.resolve(new CustomFilter(KEY), QueryFilter.class, null).isPresent());
+		assertFalse(registry.resolve(new KeyIs(1L), QueryDslExpression.class, null).isPresent());
+		assertEquals(10L, ((KeyIs) registry.resolve(new KeyIs(1L) {
+		}, QueryFilter.class, null).get()).getValue());
+		assertEquals(10L, resolveKey(registry));
+
+		// child contexts share the parent registry, without changing it
+		final JpaContext jpaContext = (JpaContext) Proxy.newProxyInstance(JpaContext.class.getClassLoader(),
+				new Class<?>[] { JpaContext.class }, (proxy, method, args) -> null);
+		final QueryDslResolutionContext parent = QueryDslResolutionContext.create(jpaContext,
+				new DefaultQueryMetadata(), QueryDslExpressionResolverRegistry.create(Arrays.asList(low)));
+		final QueryDslResolutionContext child = parent.childContext();
+		assertEquals(20L, resolveKey(child));
+		child.addExpressionResolver(high);
+		assertEquals(10L, resolveKey(child));
+		assertEquals(20L, resolveKey(parent));
+		parent.removeExpressionResolver(low);
+		assertFalse(parent.resolve(new KeyIs(1L), QueryFilter.class, parent).isPresent());
+		assertEquals(10L, resolveKey(child));
+		assertFalse(parent.childContext().resolve(new KeyIs(1L), QueryFilter.class, parent).isPresent());
+	}
+
+	private static long resolveKey(QueryDslExpressionResolverRegistry registry) {
+		return ((KeyIs) registry.resolve(new KeyIs(0L), QueryFilter.class, null).get()).getValue();
+	}
+
+	private static long resolveKey(QueryDslResolutionContext context) {
+		return ((KeyIs) context.resolve(new KeyIs(0L), QueryFilter.class, context).get()).getValue();
+	}
+
+	@Test
+	public void testPathResolverCache() {
+		final QTestJpaDomain qd = QTestJpaDomain.testJpaDomain;
+		final PathBuilder<?> path = QueryDslPathResolver.getPathBuilder(qd, "stringValue", String.class);
+		assertEquals(qd.stringValue, path);
+
+		// aliased roots do not evict the recently used paths
+		for (int i = 0; i < 1000; i++) {
+			final QTestJpaDomain alias = new QTestJpaDomain("alias" + i);
+			assertEquals(alias.stringValue, QueryDslPathResolver.getPathBuilder(alias, "stringValue", String.class));
+			assertTrue(path == QueryDslPathResolver.getPathBuilder(qd, "stringValue", String.class));
+		}
+
+		// the root type is part of the key
+		final QTestOtherDomain other = new QTestOtherDomain(qd.getMetadata().getName());
+		assertEquals(TestOtherDomain.class,
+				QueryDslPathResolver.getPathBuilder(other, "code", String.class).getRoot().getType());
+	}
+
+	@Test
+	public void testEntityPathsWarmUp() {
+		final EntityPathWarmUp result = getDatastore().create(QueryDsl.class).warmUpEntityPaths();
+		assertNotNull(result);
+		// the test query classes are not in the domain classes package
+		assertEquals(0, result.getResolvedCount());
+		assertEquals(new HashSet<>(Arrays.asList(TestJpaDomain.class, TestOtherDomain.class)),
+				new HashSet<>(result.getFailedEntityClasses()));
+		assertTrue(result.getElapsedMillis() >= 0);
+		assertThrows(IllegalArgumentException.class,
+				() -> QueryDslDataTargetResolver.resolvePath(TestJpaDomain.class));
+	}
+
 	@Test
 	@Transactional
 	@Rollback
@@ -95,11 +95,19 @@ public class TestJpaQueryDslDatastoreEclipselink extends AbstractQueryDslTest {
 	@Autowired
 	private JpaDatastore datastore;
 
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
 	@Override
 	protected Datastore getDatastore() {
 		return datastore;
 	}
 
+	@Override
+	protected EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
 	@Override
 	public void testAvg() {
 	}
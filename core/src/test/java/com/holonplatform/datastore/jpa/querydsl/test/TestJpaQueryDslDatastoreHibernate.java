@@ -96,9 +96,17 @@ public class TestJpaQueryDslDatastoreHibernate extends AbstractQueryDslTest {
 	@Autowired
 	private JpaDatastore datastore;
 
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
 	@Override
 	protected Datastore getDatastore() {
 		return datastore;
 	}
 
+	@Override
+	protected EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
 }
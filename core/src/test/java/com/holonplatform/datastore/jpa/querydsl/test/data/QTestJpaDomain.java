@@ -37,6 +37,8 @@ public class QTestJpaDomain extends EntityPathBase<TestJpaDomain> {
 
 	public final QTestNested nested;
 
+	public final NumberPath<Integer> numericBooleanValue = createNumber("numericBooleanValue", Integer.class);
+
 	public final StringPath stringValue = createString("stringValue");
 
 	public QTestJpaDomain(String variable) {
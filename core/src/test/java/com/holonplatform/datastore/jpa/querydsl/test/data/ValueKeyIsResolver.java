@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-2017 Axioma srl.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.holonplatform.datastore.jpa.querydsl.test.data;
+
+import java.util.Optional;
+
+import javax.annotation.Priority;
+
+import com.holonplatform.core.Expression.InvalidExpressionException;
+import com.holonplatform.core.query.QueryFilter;
+import com.holonplatform.core.query.QueryFilter.QueryFilterResolver;
+
+@SuppressWarnings("serial")
+public class ValueKeyIsResolver implements QueryFilterResolver<KeyIs> {
+
+	private final long value;
+
+	public ValueKeyIsResolver(long value) {
+		super();
+		this.value = value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.core.ExpressionResolver#getExpressionType()
+	 */
+	@Override
+	public Class<? extends KeyIs> getExpressionType() {
+		return KeyIs.class;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.holonplatform.core.Expression.ExpressionResolverFunction#resolve(com.holonplatform.core.Expression,
+	 * com.holonplatform.core.ExpressionResolver.ResolutionContext)
+	 */
+	@Override
+	public Optional<QueryFilter> resolve(KeyIs expression,
+			com.holonplatform.core.ExpressionResolver.ResolutionContext context) throws InvalidExpressionException {
+		return Optional.of(new KeyIs(value));
+	}
+
+	@Priority(10)
+	public static final class High extends ValueKeyIsResolver {
+
+		public High() {
+			super(10);
+		}
+
+	}
+
+	@Priority(20)
+	public static final class Low extends ValueKeyIsResolver {
+
+		public Low() {
+			super(20);
+		}
+
+	}
+
+}